@@ -3,48 +3,127 @@ package eg.edu.alexu.cse.mail_server.Controller;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
 import eg.edu.alexu.cse.mail_server.Repository.AttachmentRepository;
-import eg.edu.alexu.cse.mail_server.Service.FileStorageService;
+import eg.edu.alexu.cse.mail_server.Service.FileDownloadService;
+import eg.edu.alexu.cse.mail_server.Service.PreviewService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 
 /**
- * Controller for handling attachment downloads
+ * Controller for handling attachment downloads and previews
  */
 @RestController
 @RequestMapping("/api/mail/attachments")
 @RequiredArgsConstructor
 public class AttachmentController {
     
-    private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
     private final AttachmentRepository attachmentRepository;
+    private final PreviewService previewService;
+
+    // When a client asks again for a preview that is being made
+    private static final int PREVIEW_RETRY_AFTER_SECONDS = 2;
 
     /**
      * Download an attachment by its stored filename
-     * 
+     * Supports Range requests (206 Partial Content, several ranges, If-Range),
+     * so a dropped download can resume and media can seek
+     *
      * @param storedFileName The unique filename stored on disk
-     * @return ResponseEntity with file content and appropriate headers
      * @throws IOException if file cannot be loaded
      */
     @GetMapping("/{storedFileName}")
-    public ResponseEntity<Resource> downloadAttachment(@PathVariable String storedFileName) throws IOException {
+    public void downloadAttachment(@PathVariable String storedFileName,
+                                   HttpServletRequest request,
+                                   HttpServletResponse response) throws IOException {
         // Find attachment in database to get metadata
         Attachment attachment = attachmentRepository.findByStoredFileName(storedFileName)
                 .orElseThrow(() -> new RuntimeException("Attachment not found: " + storedFileName));
-        
-        // Load file as resource
-        Resource resource = fileStorageService.loadFileAsResource(storedFileName, attachment.getMail().getMailId());
-        
+        serve(attachment, request, response);
+    }
+
+    /**
+     * Get attachment by ID (alternative endpoint)
+     * 
+     * @param id The attachment ID
+     * @throws IOException if file cannot be loaded
+     */
+    @GetMapping("/id/{id}")
+    public void downloadAttachmentById(@PathVariable Long id,
+                                       HttpServletRequest request,
+                                       HttpServletResponse response) throws IOException {
+        Attachment attachment = attachmentRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Attachment not found with id: " + id));
+        serve(attachment, request, response);
+    }
+
+    /**
+     * Small JPEG preview of an image, or of the first page of a PDF, for preview tiles
+     * Previews never change for a given file, so they are cached for a year
+     *
+     * @param id The attachment ID
+     * @param size Longest side in pixels, rounded up to 128, 256 or 512 (256 by default)
+     * @return the preview, 202 with Retry-After while it is being made, 404 if this attachment has none
+     */
+    @GetMapping("/preview/{id}")
+    public ResponseEntity<Resource> previewAttachment(@PathVariable Long id,
+                                                      @RequestParam(required = false) Integer size,
+                                                      WebRequest request) {
+        Attachment attachment = attachmentRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Attachment not found with id: " + id));
+        // Previews are kept next to blobs, files stored before blobs existed have none
+        if (attachment.getBlob() == null || !PreviewService.isPreviewable(attachment.getContentType())) {
+            return notFound();
+        }
+        String sha256 = attachment.getBlob().getSha256();
+        int previewSize = PreviewService.sizeFor(size);
+        String etag = "\"" + sha256 + "-" + previewSize + "\"";
+        CacheControl cacheControl = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        PreviewService.Preview preview = previewService.preview(sha256, attachment.getContentType(), previewSize);
+        return switch (preview.state()) {
+            case READY -> ResponseEntity.ok()
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .body(new FileSystemResource(preview.path()));
+            case PENDING -> ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(PREVIEW_RETRY_AFTER_SECONDS))
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+            case NONE -> notFound();
+        };
+    }
+
+    // Not cached, a proxy must not keep answering 404 for an attachment whose preview is made later
+    private static ResponseEntity<Resource> notFound() {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).cacheControl(CacheControl.noStore()).build();
+    }
+
+    private void serve(Attachment attachment, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         // Determine content type
         String contentType = attachment.getContentType();
         if (contentType == null || contentType.isEmpty()) {
@@ -62,26 +141,13 @@ public class AttachmentController {
             // Trigger download
             contentDisposition = "attachment; filename=\"" + encodeFilename(attachment.getFileName()) + "\"";
         }
-        
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType(contentType))
-                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
-                .body(resource);
-    }
 
-    /**
-     * Get attachment by ID (alternative endpoint)
-     * 
-     * @param id The attachment ID
-     * @return ResponseEntity with file content and appropriate headers
-     * @throws IOException if file cannot be loaded
-     */
-    @GetMapping("/id/{id}")
-    public ResponseEntity<Resource> downloadAttachmentById(@PathVariable Long id) throws IOException {
-        Attachment attachment = attachmentRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Attachment not found with id: " + id));
-        
-        return downloadAttachment(attachment.getStoredFileName());
+        // The content hash of a blob is a strong validator for If-Range,
+        // legacy files only have their modification date
+        String etag = attachment.getBlob() != null ? "\"" + attachment.getBlob().getSha256() + "\"" : null;
+
+        fileDownloadService.serve(request, response, Paths.get(attachment.getStoragePath()),
+                contentType, contentDisposition, etag);
     }
 
     /**
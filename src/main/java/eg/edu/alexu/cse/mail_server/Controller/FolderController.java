@@ -1,6 +1,6 @@
 package eg.edu.alexu.cse.mail_server.Controller;
 
-
+import java.io.IOException;
 import java.util.Map;
 
 import org.springframework.web.bind.annotation.PostMapping;
@@ -29,7 +29,7 @@ public class FolderController {
     public Map<String, String> copyEmailToFolder(
             @RequestParam Long mailId,
             @RequestParam String folderName
-    ) {
+    ) throws IOException {
         mailService.copyEmailToFolder(mailId, folderName);
         return Map.of("message", "Email copied to folder: " + folderName);
     }
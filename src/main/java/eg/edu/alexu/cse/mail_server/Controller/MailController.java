@@ -3,7 +3,11 @@ package eg.edu.alexu.cse.mail_server.Controller;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -11,14 +15,24 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Service.MailExportService;
 import eg.edu.alexu.cse.mail_server.Service.MailService;
+import eg.edu.alexu.cse.mail_server.dto.BulkMailActionDTO;
+import eg.edu.alexu.cse.mail_server.dto.BulkSendProgressDto;
 import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
 import eg.edu.alexu.cse.mail_server.dto.EmailViewDto;
+import eg.edu.alexu.cse.mail_server.dto.FolderSummaryDto;
+import eg.edu.alexu.cse.mail_server.dto.MailPageDto;
+import eg.edu.alexu.cse.mail_server.dto.SortedMailPageDto;
 import lombok.RequiredArgsConstructor;
 
 @RestController
@@ -26,6 +40,7 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class MailController {
     private final MailService mailService;
+    private final MailExportService mailExportService;
 
     @PostMapping("/send-with-attachments")
     public Map<String, String> sendMail(
@@ -36,6 +51,26 @@ public class MailController {
         return Map.of("message", "Email sent successfully");
     }
 
+    // Send to a distribution list: accepted right away, receivers are delivered in chunks
+    // Unknown receivers are skipped and reported in the progress instead of failing the send
+    @PostMapping("/bulk-send")
+    public Map<String, Object> bulkSend(
+            @RequestPart("email") ComposeEmailDTO composeEmailDTO,
+            @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments
+    ) throws IOException {
+        Long jobId = mailService.bulkSend(composeEmailDTO, attachments);
+        return Map.of(
+            "message", "Bulk send accepted",
+            "jobId", jobId
+        );
+    }
+
+    // Progress of a bulk send, available until a day after it finished
+    @GetMapping("/bulk-send/{userEmail}/{jobId}")
+    public BulkSendProgressDto getBulkSendProgress(@PathVariable String userEmail, @PathVariable Long jobId) {
+        return mailService.getBulkSendProgress(jobId, userEmail);
+    }
+
     @PostMapping("/draft")
     public Map<String, Object> draftEmail(@RequestBody ComposeEmailDTO composeEmailDTO) {
         Long draftId = mailService.draft(composeEmailDTO);
@@ -45,34 +80,95 @@ public class MailController {
         );
     }
 
-    // Get inbox emails
+    // Get inbox emails (one page, pass nextCursor back to get the following page)
+    // All folder listings answer 304 Not Modified when If-None-Match holds the current ETag
     @GetMapping("/inbox/{userEmail}")
-    public List<EmailViewDto> getInboxMails(@PathVariable String userEmail) {
-        return mailService.getInboxMails(userEmail);
+    public ResponseEntity<MailPageDto> getInboxMails(
+            @PathVariable String userEmail,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request
+    ) {
+        return folderPage(userEmail, MailFolders.INBOX, cursor, limit, request,
+                () -> mailService.getInboxMails(userEmail, cursor, limit));
     }
 
     // Get sent emails
     @GetMapping("/sent/{userEmail}")
-    public List<EmailViewDto> getSentMails(@PathVariable String userEmail) {
-        return mailService.getSentMails(userEmail);
+    public ResponseEntity<MailPageDto> getSentMails(
+            @PathVariable String userEmail,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request
+    ) {
+        return folderPage(userEmail, MailFolders.SENT, cursor, limit, request,
+                () -> mailService.getSentMails(userEmail, cursor, limit));
     }
     
     // Get draft emails
     @GetMapping("/drafts/{userEmail}")
-    public List<EmailViewDto> getDraftMails(@PathVariable String userEmail) {
-        return mailService.getDraftMails(userEmail);
+    public ResponseEntity<MailPageDto> getDraftMails(
+            @PathVariable String userEmail,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request
+    ) {
+        return folderPage(userEmail, MailFolders.DRAFTS, cursor, limit, request,
+                () -> mailService.getDraftMails(userEmail, cursor, limit));
     }
 
     // Get trash emails
     @GetMapping("/trash/{userEmail}")
-    public List<EmailViewDto> getTrashMails(@PathVariable String userEmail) {
-        return mailService.getTrashMails(userEmail);
+    public ResponseEntity<MailPageDto> getTrashMails(
+            @PathVariable String userEmail,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request
+    ) {
+        return folderPage(userEmail, MailFolders.TRASH, cursor, limit, request,
+                () -> mailService.getTrashMails(userEmail, cursor, limit));
     }
 
     // Get emails by folder
     @GetMapping("/folder/{userEmail}/{folderName}")
-    public List<EmailViewDto> getMailsByFolder(@PathVariable String userEmail, @PathVariable String folderName) {
-        return mailService.getMailsByFolder(userEmail, folderName);
+    public ResponseEntity<MailPageDto> getMailsByFolder(
+            @PathVariable String userEmail,
+            @PathVariable String folderName,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request
+    ) {
+        return folderPage(userEmail, folderName, cursor, limit, request,
+                () -> mailService.getMailsByFolder(userEmail, folderName, cursor, limit));
+    }
+
+    /**
+     * Check the folder ETag before loading the page
+     * The mails are only queried when the client's copy is out of date
+     */
+    private ResponseEntity<MailPageDto> folderPage(String userEmail, String folderName, String cursor, Integer limit,
+                                                   WebRequest request, Supplier<MailPageDto> loader) {
+        String etag = mailService.getFolderPageETag(userEmail, folderName, cursor, limit);
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(loader.get());
+    }
+
+    // Export "All Mail" as NDJSON (one mail per line), streamed while it is read from the database
+    @GetMapping(value = "/export/{userEmail}", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportAllMail(@PathVariable String userEmail) {
+        Long ownerId = mailExportService.resolveOwnerId(userEmail);
+        StreamingResponseBody body = out -> mailExportService.exportAllMail(ownerId, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    // Unread / total counts of every folder (for folder badges)
+    @GetMapping("/summary/{userEmail}")
+    public List<FolderSummaryDto> getMailboxSummary(@PathVariable String userEmail) {
+        return mailService.getMailboxSummary(userEmail);
     }
 
     // Get mail by ID
@@ -81,9 +177,42 @@ public class MailController {
         return mailService.getMailById(mailId);
     }
 
+    // Get full mail content including attachments (folder listings only carry headers)
+    // attachments=reference sends download URLs instead of file data, except for small files
+    @GetMapping("/{mailId}/full")
+    public EmailViewDto getMailWithAttachments(
+            @PathVariable Long mailId,
+            @RequestParam(defaultValue = "inline") String attachments
+    ) throws IOException {
+        if (!attachments.equals("inline") && !attachments.equals("reference")) {
+            throw new IllegalArgumentException("attachments must be inline or reference");
+        }
+        return mailService.getMailWithAttachments(mailId, attachments.equals("reference"));
+    }
+
+    // Legacy sorted inbox, one page of at most limit mails
     @GetMapping("/sortMail/{email}/{criteria}/{order}")
-    public List<Mail> getSortedMails(@PathVariable String email, @PathVariable String criteria, @PathVariable boolean order){
-        return mailService.getSortedMails(email, criteria, order);
+    public List<Mail> getSortedMails(
+            @PathVariable String email,
+            @PathVariable String criteria,
+            @PathVariable boolean order,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return mailService.getSortedMails(email, criteria, order, page, limit);
+    }
+
+    // Any folder sorted by sender, subject, date or priority, e.g. ?sortBy=sender&ascending=true&page=0
+    @GetMapping("/sorted/{userEmail}/{folderName}")
+    public SortedMailPageDto getSortedPage(
+            @PathVariable String userEmail,
+            @PathVariable String folderName,
+            @RequestParam(defaultValue = "date") String sortBy,
+            @RequestParam(defaultValue = "false") boolean ascending,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return mailService.getSortedPage(userEmail, folderName, sortBy, ascending, page, limit);
     }
 
     // Mark as read
@@ -114,6 +243,40 @@ public class MailController {
         return Map.of("message", "Mail permanently deleted");
     }
 
+    // ==================== BULK ENDPOINTS ====================
+
+    @PutMapping("/bulk/read")
+    public Map<String, Object> bulkMarkAsRead(@RequestBody BulkMailActionDTO request) {
+        int affected = mailService.bulkMarkRead(request, true);
+        return Map.of("message", "Mails marked as read", "affected", affected);
+    }
+
+    @PutMapping("/bulk/unread")
+    public Map<String, Object> bulkMarkAsUnread(@RequestBody BulkMailActionDTO request) {
+        int affected = mailService.bulkMarkRead(request, false);
+        return Map.of("message", "Mails marked as unread", "affected", affected);
+    }
+
+    @PutMapping("/bulk/move")
+    public Map<String, Object> bulkMove(@RequestBody BulkMailActionDTO request) {
+        int affected = mailService.bulkMove(request);
+        return Map.of("message", "Mails moved successfully", "affected", affected);
+    }
+
+    // Move to trash
+    @PutMapping("/bulk/trash")
+    public Map<String, Object> bulkDelete(@RequestBody BulkMailActionDTO request) {
+        int affected = mailService.bulkTrash(request);
+        return Map.of("message", "Mails deleted successfully", "affected", affected);
+    }
+
+    // Hard delete, POST because DELETE bodies are dropped by some clients
+    @PostMapping("/bulk/permanent-delete")
+    public Map<String, Object> bulkPermanentDelete(@RequestBody BulkMailActionDTO request) {
+        int affected = mailService.bulkPermanentDelete(request);
+        return Map.of("message", "Mails permanently deleted", "affected", affected);
+    }
+
     // ==================== CUSTOM FOLDERS ENDPOINTS ====================
     
     @GetMapping("/folders/{userEmail}")
@@ -8,8 +8,10 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -20,6 +22,12 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@Table(
+        indexes = {
+                // Text extraction backlog: WHERE indexed_at IS NULL ORDER BY id
+                @Index(name = "idx_attachment_indexed_at", columnList = "indexed_at, id")
+        }
+)
 public class Attachment {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -37,16 +45,33 @@ public class Attachment {
     @Column(name = "file_size")
     private Long fileSize;
 
+    // Full path to file on disk, only set for files stored before AttachmentBlob existed
     @Column(name = "file_path", unique = true)
-    private String filePath; // Full path to file on disk
+    private String filePath;
+
+    // Shared file content (see AttachmentBlob), null for files stored before it existed
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "blob_id")
+    private AttachmentBlob blob;
 
     @Column(name = "indexed_content", columnDefinition = "TEXT")
     private String indexedContent; // For searching
 
+    // When indexedContent was extracted (see TextExtractionService), null while it is pending
+    @Column(name = "indexed_at")
+    private LocalDateTime indexedAt;
+
     @Column(name = "upload_date")
     private LocalDateTime uploadDate;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "mail_id")
     private Mail mail;
+
+    /**
+     * Full path of the file on disk, whether it is a shared blob or a legacy per-mail file
+     */
+    public String getStoragePath() {
+        return blob != null ? blob.getStoragePath() : filePath;
+    }
 }
@@ -0,0 +1,50 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One attachment file on disk, stored once under its SHA-256 digest
+ * and shared by every Attachment row with the same bytes
+ * refCount is the number of Attachment rows pointing here, the file is
+ * deleted once it drops to zero (see AttachmentBlobService)
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Table(name = "attachment_blob")
+public class AttachmentBlob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Lowercase hex SHA-256 of the file content
+    @Column(name = "sha256", nullable = false, unique = true, length = 64)
+    private String sha256;
+
+    @Column(name = "file_size", nullable = false)
+    private long fileSize;
+
+    @Column(name = "storage_path", nullable = false)
+    private String storagePath; // Full path to file on disk
+
+    @Column(name = "ref_count", nullable = false)
+    private long refCount;
+
+    @Builder.Default
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -0,0 +1,54 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Materialized message counts of one folder of one user
+ * Kept in sync in the same transaction as every mail mutation so the
+ * mailbox summary never has to scan the mail table
+ * version grows by one on every change of the folder and is used as its ETag
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Table(
+        name = "folder_counters",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"owner_id", "folder_name"})
+)
+public class FolderCounter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "owner_id", nullable = false)
+    private Long ownerId;
+
+    @Column(name = "folder_name", nullable = false)
+    private String folderName;
+
+    @Builder.Default
+    @Column(name = "total_count", nullable = false)
+    private long totalCount = 0;
+
+    @Builder.Default
+    @Column(name = "unread_count", nullable = false)
+    private long unreadCount = 0;
+
+    // Monotonic change number of the folder, rows are never deleted so it never goes back
+    @Builder.Default
+    @Column(name = "version", nullable = false)
+    private long version = 0;
+}
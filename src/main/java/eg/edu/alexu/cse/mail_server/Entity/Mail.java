@@ -16,11 +16,31 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Builder
+@Table(
+        name = "mail",
+        indexes = {
+                // Folder listings and keyset pages: WHERE owner_id = ? AND folder_name = ? ORDER BY timestamp, mail_id
+                @Index(name = "idx_mail_owner_folder_ts", columnList = "owner_id, folder_name, timestamp, mail_id"),
+                // "All Mail" pages: WHERE owner_id = ? ORDER BY timestamp, mail_id (folder checked on the index entry)
+                @Index(name = "idx_mail_owner_ts", columnList = "owner_id, timestamp, mail_id, folder_name"),
+                // Sorted views: WHERE owner_id = ? AND folder_name = ? ORDER BY <key>, timestamp, mail_id
+                @Index(name = "idx_mail_owner_folder_sender", columnList = "owner_id, folder_name, sender, timestamp, mail_id"),
+                @Index(name = "idx_mail_owner_folder_subject", columnList = "owner_id, folder_name, subject, timestamp, mail_id"),
+                @Index(name = "idx_mail_owner_folder_priority", columnList = "owner_id, folder_name, priority, timestamp, mail_id"),
+                // Orphaned content cleanup: NOT EXISTS (... WHERE content_id = ?)
+                @Index(name = "idx_mail_content", columnList = "content_id"),
+                // Trash cleanup: WHERE folder_name = 'TRASH' AND deleted_at < ?
+                @Index(name = "idx_mail_folder_deleted_at", columnList = "folder_name, deleted_at")
+        }
+)
 public class Mail {
 
+    // Max length of the body preview stored in snippet
+    public static final int SNIPPET_LENGTH = 160;
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "mail_id")
     private Long mailId;
 
     @Column(nullable = false)
@@ -28,26 +48,41 @@ public class Mail {
     @Column(nullable = false)
     private String receiver;
 
+    // Shared subject and body (see MessageContent), read through getBody()
+    @JsonIgnore
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "content_id")
+    private MessageContent content;
+
+    // Body stored per row before MessageContent existed, moved out by MessageContentMigrationService
+    @JsonIgnore
     @Lob
-    @Column(columnDefinition = "TEXT")
-    private String body;
+    @Column(name = "body", columnDefinition = "TEXT")
+    private String legacyBody;
 
+    // Precomputed preview of body for folder listings (see snippetOf)
+    @Column(length = SNIPPET_LENGTH)
+    private String snippet;
+
+    // Copy of content.subject kept on the row for listings and sorting
     @Column(nullable = false)
     private String subject;
 
     @Builder.Default
+    @Column(name = "timestamp")
     private LocalDateTime timestamp = LocalDateTime.now();
 
     @Builder.Default
     private int priority = 1;
 
-    @Column(nullable = false)
-    private String folderName; // inbox, sent, trash, draft
+    @Column(name = "folder_name", nullable = false)
+    private String folderName; // INBOX, SENT, TRASH, DRAFTS or a custom folder, always normalized (see MailFolders)
 
     @Builder.Default
     private boolean isRead = false; // for ui
 
     // Track when email was moved to trash for automatic deletion after 30 days
+    @Column(name = "deleted_at")
     private LocalDateTime deletedAt;
 
     @JsonIgnore
@@ -108,12 +143,33 @@ public class Mail {
         this.receiver = receiver;
     }
 
+    /**
+     * Body of the mail, from the shared content (or the legacy column until it is migrated)
+     */
     public String getBody() {
-        return body;
+        return content != null ? content.getBody() : legacyBody;
+    }
+
+    public MessageContent getContent() {
+        return content;
+    }
+
+    /**
+     * Point this mail to a content, the subject copy follows it
+     */
+    public void setContent(MessageContent content) {
+        this.content = content;
+        if (content != null) {
+            this.subject = content.getSubject();
+        }
     }
 
-    public void setBody(String body) {
-        this.body = body;
+    public String getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(String snippet) {
+        this.snippet = snippet;
     }
 
     public String getSubject() {
@@ -203,4 +259,19 @@ public class Mail {
     public void setDeletedAt(LocalDateTime deletedAt) {
         this.deletedAt = deletedAt;
     }
-}
\ No newline at end of file
+
+    /**
+     * Build the preview line stored in snippet
+     * Collapses whitespace so multi-line bodies still give a useful single line
+     *
+     * @param body full mail body, may be null
+     * @return at most SNIPPET_LENGTH characters, never null
+     */
+    public static String snippetOf(String body) {
+        if (body == null) {
+            return "";
+        }
+        String collapsed = body.replaceAll("\\s+", " ").trim();
+        return collapsed.length() <= SNIPPET_LENGTH ? collapsed : collapsed.substring(0, SNIPPET_LENGTH);
+    }
+}
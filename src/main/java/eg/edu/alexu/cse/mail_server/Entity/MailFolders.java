@@ -0,0 +1,38 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import java.util.Locale;
+
+/**
+ * Folder names as stored in Mail.folderName
+ * Every stored value is normalized (trimmed, upper case) so folder queries
+ * compare plain column values and can use the (owner_id, folder_name, ...) indexes
+ */
+public final class MailFolders {
+
+    public static final String INBOX = "INBOX";
+    public static final String SENT = "SENT";
+    public static final String DRAFTS = "DRAFTS";
+    public static final String TRASH = "TRASH";
+
+    // Virtual folder: every mail of the user except drafts and trash (never stored)
+    public static final String ALL = "all";
+
+    private MailFolders() {
+    }
+
+    /**
+     * Stored form of a folder name given by a client
+     * @param folderName folder name in any case, may have surrounding spaces
+     * @return trimmed upper case name, null if folderName is null
+     */
+    public static String normalize(String folderName) {
+        if (folderName == null) {
+            return null;
+        }
+        return folderName.trim().toUpperCase(Locale.ROOT);
+    }
+
+    public static boolean isAll(String folderName) {
+        return ALL.equalsIgnoreCase(folderName);
+    }
+}
@@ -0,0 +1,133 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import java.time.LocalDateTime;
+
+import org.hibernate.annotations.DynamicUpdate;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Lob;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Pending inbox delivery of one sent mail (transactional outbox)
+ * Written in the same transaction as the sent copy, then drained by OutboxWorker.
+ * Holds everything needed to build the inbox copies, so delivery does not
+ * depend on the sent copy still existing
+ * Also serves as the job of a bulk send: its progress is read from deliveredCount and skippedCount
+ * The receivers are rows of mail_outbox_receiver (MailOutboxReceiver). Updates only write the
+ * changed columns (DynamicUpdate): the progress of each batch does not rewrite the attachment list
+ */
+@Entity
+@DynamicUpdate
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Table(
+        name = "mail_outbox",
+        indexes = {
+                // Polling: WHERE status = 'PENDING' AND next_attempt_at <= ? ORDER BY next_attempt_at
+                @Index(name = "idx_mail_outbox_status_next", columnList = "status, next_attempt_at")
+        }
+)
+public class MailOutbox {
+
+    public enum Status {
+        PENDING,     // waiting for its next attempt
+        IN_PROGRESS, // claimed by a worker, see claimedBy
+        DELIVERED,
+        FAILED       // gave up after MAX_ATTEMPTS
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "sent_mail_id")
+    private Long sentMailId;
+
+    @Column(name = "sender_id", nullable = false)
+    private Long senderId;
+
+    @Column(nullable = false)
+    private String sender;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "content_id", nullable = false)
+    private MessageContent content;
+
+    @Column(length = Mail.SNIPPET_LENGTH)
+    private String snippet;
+
+    private int priority;
+
+    // Number of MailOutboxReceiver rows, validated when the mail was sent (bulk sends: resolved per batch)
+    @Column(name = "receiver_count", nullable = false)
+    private int receiverCount;
+
+    // JSON array of the attachments to add to every inbox copy (see OutboxService.OutboxAttachment)
+    @Lob
+    @Column(columnDefinition = "TEXT")
+    private String attachments;
+
+    // Receivers already delivered, in position order: a retry resumes after them
+    @Builder.Default
+    @Column(name = "delivered_count", nullable = false)
+    private int deliveredCount = 0;
+
+    // Receivers without an account when their batch was delivered, they get no inbox copy
+    // (marked skipped in mail_outbox_receiver)
+    @Builder.Default
+    @Column(name = "skipped_count", nullable = false)
+    private int skippedCount = 0;
+
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status = Status.PENDING;
+
+    @Builder.Default
+    @Column(nullable = false)
+    private int attempts = 0;
+
+    // Instance whose worker holds the claim, and when it last renewed it (claim and every batch).
+    // A claim older than OutboxService.CLAIM_LEASE belongs to a dead instance and is released
+    @Column(name = "claimed_by", length = 36)
+    private String claimedBy;
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    // Bumped by every batch and every claim: a worker that lost its claim cannot commit a batch
+    @Version
+    @Builder.Default
+    @Column(nullable = false)
+    private long version = 0;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "delivered_at")
+    private LocalDateTime deliveredAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+}
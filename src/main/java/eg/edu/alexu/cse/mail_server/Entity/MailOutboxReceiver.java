@@ -0,0 +1,51 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One receiver of an outbox entry
+ * Kept in their own rows so a delivery batch reads only its receivers by position,
+ * instead of loading and rewriting the whole list of a bulk send every batch
+ * Written with MailBatchRepository.insertOutboxReceivers, removed with their entry
+ */
+@Entity
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Table(
+        name = "mail_outbox_receiver",
+        // Delivery batches: WHERE outbox_id = ? AND receiver_position >= ? AND receiver_position < ?
+        uniqueConstraints = @UniqueConstraint(columnNames = {"outbox_id", "receiver_position"})
+)
+public class MailOutboxReceiver {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "outbox_id", nullable = false)
+    private Long outboxId;
+
+    // Order of the receiver in the send, starting at 0; MailOutbox.deliveredCount counts from it
+    @Column(name = "receiver_position", nullable = false)
+    private int position;
+
+    @Column(nullable = false)
+    private String email;
+
+    // No account when its batch was delivered, it got no inbox copy
+    @Builder.Default
+    @Column(nullable = false)
+    private boolean skipped = false;
+}
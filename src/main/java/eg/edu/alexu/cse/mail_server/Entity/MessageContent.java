@@ -0,0 +1,78 @@
+package eg.edu.alexu.cse.mail_server.Entity;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+
+import org.hibernate.annotations.Immutable;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Subject and body of a message, stored once and shared by every Mail row that shows it
+ * (sent copy, inbox copies, copies into custom folders)
+ * Never updated: editing a draft points it to another content row
+ * Rows no Mail points to are removed by MessageContentService.deleteOrphanedContent
+ */
+@Entity
+@Immutable
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Table(
+        name = "message_content",
+        // Not unique: two senders may store the same content concurrently, that only costs a duplicate row
+        indexes = @Index(name = "idx_message_content_hash", columnList = "content_hash")
+)
+public class MessageContent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // SHA-256 of subject and body (see hashOf), used to find an existing copy
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(nullable = false)
+    private String subject;
+
+    @Lob
+    @Column(columnDefinition = "TEXT")
+    private String body;
+
+    @Builder.Default
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * Hash identifying a subject and body pair
+     * @return lowercase hex SHA-256
+     */
+    public static String hashOf(String subject, String body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((subject == null ? "" : subject).getBytes(StandardCharsets.UTF_8));
+            // Separator so ("ab", "c") and ("a", "bc") differ
+            digest.update((byte) 0);
+            digest.update((body == null ? "" : body).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
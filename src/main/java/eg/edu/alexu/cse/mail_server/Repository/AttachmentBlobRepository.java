@@ -0,0 +1,48 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.AttachmentBlob;
+
+@Repository
+public interface AttachmentBlobRepository extends JpaRepository<AttachmentBlob, Long> {
+
+    Optional<AttachmentBlob> findBySha256(String sha256);
+
+    boolean existsBySha256(String sha256);
+
+    // Applied in place so concurrent senders and deletes never overwrite each other
+    @Modifying
+    @Query("UPDATE AttachmentBlob b SET b.refCount = b.refCount + :delta WHERE b.id = :id")
+    int addReferences(@Param("id") Long id, @Param("delta") long delta);
+
+    // Creates the blob row, or adds the references to the row already holding this content
+    // One statement, so identical uploads at the same time never collide on the sha256 key
+    @Modifying
+    @Query(value = "INSERT INTO attachment_blob (sha256, file_size, storage_path, ref_count, created_at) " +
+            "VALUES (:sha256, :fileSize, :storagePath, :references, :createdAt) " +
+            "ON DUPLICATE KEY UPDATE ref_count = ref_count + :references", nativeQuery = true)
+    int upsertReferences(@Param("sha256") String sha256, @Param("fileSize") long fileSize,
+                         @Param("storagePath") String storagePath, @Param("references") long references,
+                         @Param("createdAt") LocalDateTime createdAt);
+
+    // Blobs among ids no attachment row uses any more
+    @Query("SELECT b FROM AttachmentBlob b WHERE b.id IN :ids AND b.refCount <= 0 " +
+            "AND NOT EXISTS (SELECT a.id FROM Attachment a WHERE a.blob = b)")
+    List<AttachmentBlob> findUnreferenced(@Param("ids") Collection<Long> ids);
+
+    // Checked again in the delete itself: a reference taken since findUnreferenced keeps the row
+    @Modifying
+    @Query("DELETE FROM AttachmentBlob b WHERE b.id = :id AND b.refCount <= 0 " +
+            "AND NOT EXISTS (SELECT a.id FROM Attachment a WHERE a.blob.id = :id)")
+    int deleteIfUnreferenced(@Param("id") Long id);
+}
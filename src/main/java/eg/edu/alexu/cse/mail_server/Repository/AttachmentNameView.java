@@ -0,0 +1,11 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+/**
+ * Attachment metadata needed by folder listings (no file access)
+ */
+public interface AttachmentNameView {
+
+    Long getMailId();
+
+    String getFileName();
+}
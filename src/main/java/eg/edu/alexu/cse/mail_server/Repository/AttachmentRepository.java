@@ -1,9 +1,15 @@
 package eg.edu.alexu.cse.mail_server.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
@@ -19,4 +25,47 @@ public interface AttachmentRepository extends JpaRepository<Attachment, Long> {
     List<Attachment> findByMailMailId(Long mailId);
 
     Optional<Attachment> findByStoredFileName(String storedFileName);
+
+    /**
+     * Attachment names for a page of mails in one query
+     * Used by folder listings, never reads the files themselves
+     */
+    @Query("SELECT a.mail.mailId AS mailId, a.fileName AS fileName FROM Attachment a WHERE a.mail.mailId IN :mailIds")
+    List<AttachmentNameView> findNamesByMailIds(@Param("mailIds") Collection<Long> mailIds);
+
+    // Attachments whose text is not extracted yet, oldest first
+    @Query("SELECT a.id FROM Attachment a WHERE a.indexedAt IS NULL ORDER BY a.id ASC")
+    List<Long> findUnindexedIds(Pageable pageable);
+
+    long countByIndexedAtIsNull();
+
+    // Text already extracted from the same file for another copy of the attachment
+    @Query("SELECT a.indexedContent FROM Attachment a WHERE a.blob.id = :blobId AND a.indexedAt IS NOT NULL")
+    List<String> findIndexedContentOfBlob(@Param("blobId") Long blobId, Pageable pageable);
+
+    // Store the text of a file in every copy still waiting for it
+    @Modifying
+    @Query("UPDATE Attachment a SET a.indexedContent = :text, a.indexedAt = :indexedAt " +
+            "WHERE a.blob.id = :blobId AND a.indexedAt IS NULL")
+    int updateIndexedContentOfBlob(@Param("blobId") Long blobId,
+                                   @Param("text") String text,
+                                   @Param("indexedAt") LocalDateTime indexedAt);
+
+    // Same for one attachment stored before blobs existed
+    @Modifying
+    @Query("UPDATE Attachment a SET a.indexedContent = :text, a.indexedAt = :indexedAt WHERE a.id = :id")
+    int updateIndexedContent(@Param("id") Long id,
+                             @Param("text") String text,
+                             @Param("indexedAt") LocalDateTime indexedAt);
+
+    // Blob references held by the attachments of these mails, released when the mails are deleted
+    @Query("SELECT a.blob.id AS blobId, COUNT(a) AS references FROM Attachment a " +
+            "WHERE a.mail.mailId IN :mailIds AND a.blob IS NOT NULL GROUP BY a.blob.id")
+    List<BlobReferenceView> countBlobReferences(@Param("mailIds") Collection<Long> mailIds);
+
+    // Attachment rows of the owned mails among mailIds (bulk delete does not cascade)
+    @Modifying
+    @Query("DELETE FROM Attachment a WHERE a.mail.mailId IN " +
+            "(SELECT m.mailId FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds)")
+    int deleteByOwnedMailIds(@Param("ownerId") Long ownerId, @Param("mailIds") Collection<Long> mailIds);
 }
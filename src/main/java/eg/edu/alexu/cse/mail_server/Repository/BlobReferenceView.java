@@ -0,0 +1,11 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+/**
+ * Number of attachment rows of some mails that point to one blob
+ */
+public interface BlobReferenceView {
+
+    Long getBlobId();
+
+    long getReferences();
+}
@@ -0,0 +1,16 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+/**
+ * Message counts of one folder computed from the mail table
+ * Used to (re)build the materialized folder counters
+ */
+public interface FolderCountView {
+
+    Long getOwnerId();
+
+    String getFolderName();
+
+    long getTotalCount();
+
+    long getUnreadCount();
+}
@@ -0,0 +1,74 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.FolderCounter;
+
+@Repository
+public interface FolderCounterRepository extends JpaRepository<FolderCounter, Long> {
+
+    List<FolderCounter> findByOwnerIdOrderByFolderNameAsc(Long ownerId);
+
+    Optional<FolderCounter> findByOwnerIdAndFolderName(Long ownerId, String folderName);
+
+    // Current version of one folder
+    @Query("SELECT c.version FROM FolderCounter c WHERE c.ownerId = :ownerId AND c.folderName = :folderName")
+    Optional<Long> findVersion(@Param("ownerId") Long ownerId, @Param("folderName") String folderName);
+
+    // Version of the "All Mail" view: every folder except drafts and trash
+    // Sum of monotonic versions, so it changes whenever one of them changes
+    @Query("SELECT COALESCE(SUM(c.version), 0) FROM FolderCounter c " +
+            "WHERE c.ownerId = :ownerId AND c.folderName NOT IN ('DRAFTS', 'TRASH')")
+    long sumVersionsExcludingDraftsAndTrash(@Param("ownerId") Long ownerId);
+
+    /**
+     * Apply deltas in place so concurrent senders never overwrite each other
+     * Also bumps the folder version. The first change of a folder creates its row in the
+     * same statement, so two first deliveries at once cannot both insert it
+     */
+    @Modifying
+    @Query(value = "INSERT INTO folder_counters (owner_id, folder_name, total_count, unread_count, version) " +
+            "VALUES (:ownerId, :folderName, GREATEST(:totalDelta, 0), GREATEST(:unreadDelta, 0), 1) " +
+            "ON DUPLICATE KEY UPDATE total_count = total_count + :totalDelta, " +
+            "unread_count = unread_count + :unreadDelta, version = version + 1", nativeQuery = true)
+    int adjust(@Param("ownerId") Long ownerId,
+               @Param("folderName") String folderName,
+               @Param("totalDelta") long totalDelta,
+               @Param("unreadDelta") long unreadDelta);
+
+    // Same as adjust for one folder of many owners (send fan-out)
+    @Modifying
+    @Query("UPDATE FolderCounter c SET c.totalCount = c.totalCount + :totalDelta, " +
+            "c.unreadCount = c.unreadCount + :unreadDelta, c.version = c.version + 1 " +
+            "WHERE c.ownerId IN :ownerIds AND c.folderName = :folderName")
+    int adjustAll(@Param("ownerIds") Collection<Long> ownerIds,
+                  @Param("folderName") String folderName,
+                  @Param("totalDelta") long totalDelta,
+                  @Param("unreadDelta") long unreadDelta);
+
+    @Query("SELECT c.ownerId FROM FolderCounter c WHERE c.ownerId IN :ownerIds AND c.folderName = :folderName")
+    List<Long> findOwnerIdsWithFolder(@Param("ownerIds") Collection<Long> ownerIds,
+                                      @Param("folderName") String folderName);
+
+    /**
+     * Empty a folder's counters (folder deleted or renamed away)
+     * The row is kept so its version keeps growing if the name is reused
+     */
+    @Modifying
+    @Query("UPDATE FolderCounter c SET c.totalCount = 0, c.unreadCount = 0, c.version = c.version + 1 " +
+            "WHERE c.ownerId = :ownerId AND c.folderName = :folderName")
+    int clearFolder(@Param("ownerId") Long ownerId, @Param("folderName") String folderName);
+
+    // Empty every counter before a full rebuild, versions keep growing
+    @Modifying
+    @Query("UPDATE FolderCounter c SET c.totalCount = 0, c.unreadCount = 0, c.version = c.version + 1")
+    int clearAll();
+}
@@ -0,0 +1,128 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * JDBC batch inserts for the send fan-out (one inbox copy per receiver)
+ * Mail and Attachment use IDENTITY ids, which turns off Hibernate insert batching,
+ * so saving N copies through the repositories costs N round trips. Here they go
+ * out as JDBC batches (multi-row inserts with rewriteBatchedStatements=true on MySQL)
+ * and the generated ids are read back into the given objects.
+ *
+ * Runs on the connection of the surrounding JPA transaction. The rows are not
+ * managed by the persistence context, callers must not save them again.
+ */
+@Repository
+@RequiredArgsConstructor
+public class MailBatchRepository {
+
+    // Rows per JDBC batch
+    static final int BATCH_SIZE = 500;
+
+    private static final String INSERT_MAIL = "INSERT INTO mail (sender, receiver, content_id, snippet, subject, timestamp, " +
+            "priority, folder_name, is_read, deleted_at, sender_id, owner_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_ATTACHMENT = "INSERT INTO attachment (file_name, stored_file_name, content_type, " +
+            "file_size, blob_id, indexed_content, upload_date, mail_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_OUTBOX_RECEIVER = "INSERT INTO mail_outbox_receiver (outbox_id, receiver_position, " +
+            "email, skipped) VALUES (?, ?, ?, false)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Insert mails in batches and set their generated mailId
+     * senderRel, owner and content must be set (references are enough, only their ids are read)
+     */
+    public void insertMails(List<Mail> mails) {
+        for (int from = 0; from < mails.size(); from += BATCH_SIZE) {
+            List<Mail> batch = mails.subList(from, Math.min(from + BATCH_SIZE, mails.size()));
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(
+                    connection -> connection.prepareStatement(INSERT_MAIL, new String[] {"mail_id"}),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int i) throws SQLException {
+                            Mail mail = batch.get(i);
+                            ps.setString(1, mail.getSender());
+                            ps.setString(2, mail.getReceiver());
+                            ps.setLong(3, mail.getContent().getId());
+                            ps.setString(4, mail.getSnippet());
+                            ps.setString(5, mail.getSubject());
+                            ps.setObject(6, mail.getTimestamp());
+                            ps.setInt(7, mail.getPriority());
+                            ps.setString(8, mail.getFolderName());
+                            ps.setBoolean(9, mail.isRead());
+                            ps.setObject(10, mail.getDeletedAt());
+                            ps.setLong(11, mail.getSenderRel().getUserId());
+                            ps.setLong(12, mail.getOwner().getUserId());
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+                    },
+                    keyHolder);
+
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < batch.size(); i++) {
+                Mail mail = batch.get(i);
+                mail.setMailId(((Number) keys.get(i).values().iterator().next()).longValue());
+                mail.setOwnerId(mail.getOwner().getUserId());
+            }
+        }
+    }
+
+    /**
+     * Insert attachment rows in batches, their mail and blob must already have an id
+     */
+    public void insertAttachments(List<Attachment> attachments) {
+        jdbcTemplate.batchUpdate(INSERT_ATTACHMENT, attachments, BATCH_SIZE, (ps, attachment) -> {
+            ps.setString(1, attachment.getFileName());
+            ps.setString(2, attachment.getStoredFileName());
+            ps.setString(3, attachment.getContentType());
+            ps.setObject(4, attachment.getFileSize());
+            ps.setLong(5, attachment.getBlob().getId());
+            ps.setString(6, attachment.getIndexedContent());
+            ps.setObject(7, attachment.getUploadDate());
+            ps.setLong(8, attachment.getMail().getMailId());
+        });
+    }
+
+    /**
+     * Insert the receivers of an outbox entry in batches, numbered from 0 in list order
+     */
+    public void insertOutboxReceivers(Long outboxId, List<String> receivers) {
+        for (int from = 0; from < receivers.size(); from += BATCH_SIZE) {
+            int offset = from;
+            List<String> batch = receivers.subList(from, Math.min(from + BATCH_SIZE, receivers.size()));
+            jdbcTemplate.batchUpdate(INSERT_OUTBOX_RECEIVER, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, outboxId);
+                    ps.setInt(2, offset + i);
+                    ps.setString(3, batch.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return batch.size();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * Header-only projection of Mail used by folder listings
+ * Never selects the full body or touches attachment files
+ */
+public interface MailHeaderView {
+
+    Long getMailId();
+
+    String getSender();
+
+    String getReceiver();
+
+    String getSubject();
+
+    // First characters of the body, enough for a preview line
+    String getSnippet();
+
+    LocalDateTime getTimestamp();
+
+    int getPriority();
+
+    boolean getIsRead();
+
+    String getFolderName();
+}
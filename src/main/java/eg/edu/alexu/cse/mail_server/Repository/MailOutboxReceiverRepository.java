@@ -0,0 +1,40 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.MailOutboxReceiver;
+
+@Repository
+public interface MailOutboxReceiverRepository extends JpaRepository<MailOutboxReceiver, Long> {
+
+    // Receivers of one delivery batch, positions from (inclusive) to (exclusive)
+    @Query("SELECT r.email FROM MailOutboxReceiver r WHERE r.outboxId = :outboxId " +
+            "AND r.position >= :from AND r.position < :to ORDER BY r.position ASC")
+    List<String> findEmails(@Param("outboxId") Long outboxId, @Param("from") int from, @Param("to") int to);
+
+    @Modifying
+    @Query("UPDATE MailOutboxReceiver r SET r.skipped = true WHERE r.outboxId = :outboxId " +
+            "AND r.position >= :from AND r.position < :to AND r.email IN :emails")
+    int markSkipped(@Param("outboxId") Long outboxId, @Param("from") int from, @Param("to") int to,
+                    @Param("emails") Collection<String> emails);
+
+    // One page of the skipped receivers, in send order
+    @Query("SELECT r.email FROM MailOutboxReceiver r WHERE r.outboxId = :outboxId AND r.skipped = true " +
+            "ORDER BY r.position ASC")
+    List<String> findSkippedEmails(@Param("outboxId") Long outboxId, Pageable pageable);
+
+    // Receivers of the entries MailOutboxRepository.deleteDeliveredBefore removes, deleted first
+    @Modifying
+    @Query("DELETE FROM MailOutboxReceiver r WHERE r.outboxId IN (SELECT o.id FROM MailOutbox o " +
+            "WHERE o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.DELIVERED AND o.deliveredAt < :before)")
+    int deleteOfDeliveredBefore(@Param("before") LocalDateTime before);
+}
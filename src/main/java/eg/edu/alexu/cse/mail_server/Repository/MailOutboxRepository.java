@@ -0,0 +1,53 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.MailOutbox;
+
+@Repository
+public interface MailOutboxRepository extends JpaRepository<MailOutbox, Long> {
+
+    // Entries whose next attempt is due, oldest first
+    @Query("SELECT o.id FROM MailOutbox o WHERE o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.PENDING " +
+            "AND o.nextAttemptAt <= :now ORDER BY o.nextAttemptAt ASC")
+    List<Long> findDueIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Claim an entry for the workers of one instance
+     * @return 1 if claimed, 0 if another worker got it first
+     */
+    @Modifying
+    @Query("UPDATE MailOutbox o SET o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.IN_PROGRESS, " +
+            "o.claimedBy = :claimedBy, o.claimedAt = :now, o.version = o.version + 1 " +
+            "WHERE o.id = :id AND o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.PENDING")
+    int claim(@Param("id") Long id, @Param("claimedBy") String claimedBy, @Param("now") LocalDateTime now);
+
+    // Entries whose claim was not renewed since expiredBefore go back to the queue: their instance died
+    @Modifying
+    @Query("UPDATE MailOutbox o SET o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.PENDING, " +
+            "o.claimedBy = NULL, o.claimedAt = NULL, o.version = o.version + 1 " +
+            "WHERE o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.IN_PROGRESS " +
+            "AND (o.claimedAt IS NULL OR o.claimedAt < :expiredBefore)")
+    int releaseExpiredClaims(@Param("expiredBefore") LocalDateTime expiredBefore);
+
+    // Delivered entries are kept for a while for troubleshooting, then removed
+    @Modifying
+    @Query("DELETE FROM MailOutbox o WHERE o.status = eg.edu.alexu.cse.mail_server.Entity.MailOutbox.Status.DELIVERED " +
+            "AND o.deliveredAt < :before")
+    int deleteDeliveredBefore(@Param("before") LocalDateTime before);
+
+    long countByStatusIn(Collection<MailOutbox.Status> statuses);
+
+    // Creation time of the oldest entry not delivered yet, null when the queue is empty
+    @Query("SELECT MIN(o.createdAt) FROM MailOutbox o WHERE o.status IN :statuses")
+    LocalDateTime findOldestCreatedAt(@Param("statuses") Collection<MailOutbox.Status> statuses);
+}
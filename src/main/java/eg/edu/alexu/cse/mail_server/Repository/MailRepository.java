@@ -1,13 +1,25 @@
 package eg.edu.alexu.cse.mail_server.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import jakarta.persistence.QueryHint;
 
 @Repository
 public interface MailRepository extends JpaRepository<Mail, Long> {
@@ -22,7 +34,8 @@ public interface MailRepository extends JpaRepository<Mail, Long> {
 
     List<Mail> findBySenderAndFolderNameOrderByTimestampDesc(String sender, String folderName);
     // Find all emails where the user is either sender or receiver
-    @Query("SELECT DISTINCT m FROM Mail m LEFT JOIN m.receiverRel r WHERE m.senderRel.userId = :userId OR r.userId = :userId")
+    @Query("SELECT DISTINCT m FROM Mail m LEFT JOIN FETCH m.content LEFT JOIN m.receiverRel r " +
+            "WHERE m.senderRel.userId = :userId OR r.userId = :userId")
     List<Mail> findAllByUserId(@Param("userId") Long userId);
 
 
@@ -30,7 +43,7 @@ public interface MailRepository extends JpaRepository<Mail, Long> {
     List<Mail> findByReceiverOrSenderOrderByTimestampDesc(@Param("email") String email1, @Param("email") String email2);
 
     // Find all emails for a user (sender or receiver) excluding drafts and trash
-    @Query("SELECT m FROM Mail m WHERE (m.receiver = :email OR m.sender = :email) AND UPPER(m.folderName) NOT IN ('DRAFTS', 'TRASH') ORDER BY m.timestamp DESC")
+    @Query("SELECT m FROM Mail m WHERE (m.receiver = :email OR m.sender = :email) AND m.folderName NOT IN ('DRAFTS', 'TRASH') ORDER BY m.timestamp DESC")
     List<Mail> findByReceiverOrSenderExcludingDraftsAndTrashOrderByTimestampDesc(@Param("email") String email);
 
     // Find trash emails older than specified date for automatic deletion
@@ -38,17 +51,18 @@ public interface MailRepository extends JpaRepository<Mail, Long> {
 
     List<Mail> findByReceiver(String receiver);
 
-    List<Mail> findByReceiverAndFolderNameOrderBySenderAsc(String receiver, String folderName);
-    List<Mail> findByReceiverAndFolderNameOrderBySenderDesc(String receiver, String folderName);
+    // Sorted views: the ORDER BY comes from the Sort of the Pageable (see MailService.sortFor)
+    // Returned as entities whose body is serialized, so the content is joined instead of loaded per row
+    @EntityGraph(attributePaths = "content")
+    List<Mail> findByOwnerIdAndFolderName(Long ownerId, String folderName, Pageable pageable);
 
-    List<Mail> findByReceiverAndFolderNameOrderBySubjectAsc(String receiver, String folderName);
-    List<Mail> findByReceiverAndFolderNameOrderBySubjectDesc(String receiver, String folderName);
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName = :folderName")
+    Slice<MailHeaderView> findFolderSorted(@Param("ownerId") Long ownerId,
+                                          @Param("folderName") String folderName,
+                                          Pageable pageable);
 
-    List<Mail> findByReceiverAndFolderNameOrderByTimestampAsc(String receiver, String folderName);
-    List<Mail> findByReceiverAndFolderNameOrderByTimestampDesc(String receiver, String folderName);
-
-    List<Mail> findByReceiverAndFolderNameOrderByPriorityAsc(String receiver, String folderName);
-    List<Mail> findByReceiverAndFolderNameOrderByPriorityDesc(String receiver, String folderName);
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName NOT IN ('DRAFTS', 'TRASH')")
+    Slice<MailHeaderView> findAllMailSorted(@Param("ownerId") Long ownerId, Pageable pageable);
 
 
     // Owner-based queries for personal folders (trash, drafts, custom folders)
@@ -60,7 +74,152 @@ public interface MailRepository extends JpaRepository<Mail, Long> {
     // Find mail by ID and owner (for deletion security)
     @Query("SELECT m FROM Mail m WHERE m.mailId = :mailId AND m.ownerId = :ownerId")
     Mail findByMailIdAndOwnerId(@Param("mailId") Long mailId, @Param("ownerId") Long ownerId);
-        @Query("SELECT m FROM Mail m WHERE m.ownerId = :ownerId AND UPPER(m.folderName) NOT IN ('DRAFTS', 'TRASH') ORDER BY m.timestamp DESC")
+    @Query("SELECT m FROM Mail m WHERE m.ownerId = :ownerId AND m.folderName NOT IN ('DRAFTS', 'TRASH') ORDER BY m.timestamp DESC")
     List<Mail> findAllByOwnerIdExcludingDraftsAndTrash(@Param("ownerId") Long ownerId);
-}
+
+    // Rows per JDBC round trip when streaming an export
+    String EXPORT_FETCH_SIZE = "1000";
+
+    /**
+     * "All Mail" of a user as a cursor-backed stream, newest first
+     * Must be consumed inside a transaction and closed, rows are fetched EXPORT_FETCH_SIZE at a time
+     * (MySQL only honors the fetch size with useCursorFetch=true on the JDBC URL)
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+    @Query("SELECT m FROM Mail m LEFT JOIN FETCH m.content " +
+            "WHERE m.ownerId = :ownerId AND m.folderName NOT IN ('DRAFTS', 'TRASH') " +
+            "ORDER BY m.timestamp DESC, m.mailId DESC")
+    Stream<Mail> streamAllMailByOwnerId(@Param("ownerId") Long ownerId);
+
+    // ==================== BULK OPERATIONS (owner scoped) ====================
+
+    // Per-folder counts of the owned mails among mailIds whose read flag differs from :read
+    @Query("SELECT m.ownerId AS ownerId, m.folderName AS folderName, COUNT(m) AS totalCount, " +
+            "SUM(CASE WHEN m.isRead = false THEN 1 ELSE 0 END) AS unreadCount " +
+            "FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds AND m.isRead <> :read " +
+            "GROUP BY m.ownerId, m.folderName")
+    List<FolderCountView> countReadFlagChanges(@Param("ownerId") Long ownerId,
+                                               @Param("mailIds") Collection<Long> mailIds,
+                                               @Param("read") boolean read);
+
+    // Per-folder counts of the owned mails among mailIds that are not in :folderName yet
+    @Query("SELECT m.ownerId AS ownerId, m.folderName AS folderName, COUNT(m) AS totalCount, " +
+            "SUM(CASE WHEN m.isRead = false THEN 1 ELSE 0 END) AS unreadCount " +
+            "FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds AND m.folderName <> :folderName " +
+            "GROUP BY m.ownerId, m.folderName")
+    List<FolderCountView> countOutsideFolder(@Param("ownerId") Long ownerId,
+                                             @Param("mailIds") Collection<Long> mailIds,
+                                             @Param("folderName") String folderName);
+
+    // Per-folder counts of the owned mails among mailIds
+    @Query("SELECT m.ownerId AS ownerId, m.folderName AS folderName, COUNT(m) AS totalCount, " +
+            "SUM(CASE WHEN m.isRead = false THEN 1 ELSE 0 END) AS unreadCount " +
+            "FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds " +
+            "GROUP BY m.ownerId, m.folderName")
+    List<FolderCountView> countOwned(@Param("ownerId") Long ownerId, @Param("mailIds") Collection<Long> mailIds);
+
+    @Query("SELECT m.mailId FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds")
+    List<Long> findOwnedIds(@Param("ownerId") Long ownerId, @Param("mailIds") Collection<Long> mailIds);
+
+    @Modifying
+    @Query("UPDATE Mail m SET m.isRead = :read " +
+            "WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds AND m.isRead <> :read")
+    int updateReadFlag(@Param("ownerId") Long ownerId,
+                       @Param("mailIds") Collection<Long> mailIds,
+                       @Param("read") boolean read);
+
+    // deletedAt is set when moving to trash and cleared when moving anywhere else
+    @Modifying
+    @Query("UPDATE Mail m SET m.folderName = :folderName, m.deletedAt = :deletedAt " +
+            "WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds AND m.folderName <> :folderName")
+    int moveToFolder(@Param("ownerId") Long ownerId,
+                     @Param("mailIds") Collection<Long> mailIds,
+                     @Param("folderName") String folderName,
+                     @Param("deletedAt") LocalDateTime deletedAt);
+
+    // Write a buffered draft edit (see DraftWriteBuffer), 0 if the mail is gone or no longer a draft
+    @Modifying
+    @Query("UPDATE Mail m SET m.receiver = :receiver, m.content = :content, m.subject = :subject, " +
+            "m.legacyBody = NULL, m.snippet = :snippet, m.priority = :priority, m.timestamp = :timestamp " +
+            "WHERE m.mailId = :mailId AND m.folderName = 'DRAFTS'")
+    int updateDraft(@Param("mailId") Long mailId,
+                    @Param("receiver") String receiver,
+                    @Param("content") MessageContent content,
+                    @Param("subject") String subject,
+                    @Param("snippet") String snippet,
+                    @Param("priority") int priority,
+                    @Param("timestamp") LocalDateTime timestamp);
+
+    // Receiver links of the owned mails (join table has no entity, so native SQL)
+    @Modifying
+    @Query(value = "DELETE FROM mail_recivers WHERE mail_id IN " +
+            "(SELECT mail_id FROM mail WHERE owner_id = :ownerId AND mail_id IN (:mailIds))", nativeQuery = true)
+    int deleteReceiverLinks(@Param("ownerId") Long ownerId, @Param("mailIds") Collection<Long> mailIds);
+
+    // Bulk deletes bypass cascades: attachments and receiver links must be deleted first
+    @Modifying
+    @Query("DELETE FROM Mail m WHERE m.ownerId = :ownerId AND m.mailId IN :mailIds")
+    int deleteOwned(@Param("ownerId") Long ownerId, @Param("mailIds") Collection<Long> mailIds);
+
+    // Distinct stored folder names, used to find values that are not normalized yet
+    @Query("SELECT DISTINCT m.folderName FROM Mail m")
+    List<String> findDistinctFolderNames();
+
+    // Rewrite one stored folder name (folder name normalization)
+    @Modifying
+    @Query("UPDATE Mail m SET m.folderName = :newName WHERE m.folderName = :oldName")
+    int renameFolderEverywhere(@Param("oldName") String oldName, @Param("newName") String newName);
+
+    // Per-folder counts of every mailbox, used to rebuild the folder counters
+    @Query("SELECT m.ownerId AS ownerId, m.folderName AS folderName, COUNT(m) AS totalCount, " +
+            "SUM(CASE WHEN m.isRead = false THEN 1 ELSE 0 END) AS unreadCount " +
+            "FROM Mail m GROUP BY m.ownerId, m.folderName")
+    List<FolderCountView> countByOwnerAndFolder();
+
+    // Mails created before the snippet column existed, in id order (for the backfill job)
+    List<Mail> findBySnippetIsNullAndMailIdGreaterThanOrderByMailIdAsc(Long mailId, Pageable pageable);
+
+    // Mails still holding their body in the legacy column, in id order (MessageContentMigrationService)
+    List<Mail> findByContentIsNullAndMailIdGreaterThanOrderByMailIdAsc(Long mailId, Pageable pageable);
+
+    // Mail with its shared content, for the detail view
+    @Query("SELECT m FROM Mail m LEFT JOIN FETCH m.content WHERE m.mailId = :mailId")
+    Optional<Mail> findWithContentByMailId(@Param("mailId") Long mailId);
+
+    // Keyset (cursor) pagination over header-only projections: newest first, mailId breaks timestamp ties
+    // Reads the precomputed snippet, never the body
+    String HEADER_SELECT = "SELECT m.mailId AS mailId, m.sender AS sender, m.receiver AS receiver, " +
+            "m.subject AS subject, m.snippet AS snippet, m.timestamp AS timestamp, " +
+            "m.priority AS priority, m.isRead AS isRead, m.folderName AS folderName FROM Mail m ";
+
+    // First page of a folder
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName = :folderName " +
+            "ORDER BY m.timestamp DESC, m.mailId DESC")
+    List<MailHeaderView> findFolderPage(@Param("ownerId") Long ownerId,
+                                        @Param("folderName") String folderName,
+                                        Pageable pageable);
+
+    // Next page of a folder, strictly after the (timestamp, mailId) cursor
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName = :folderName " +
+            "AND (m.timestamp < :timestamp OR (m.timestamp = :timestamp AND m.mailId < :mailId)) " +
+            "ORDER BY m.timestamp DESC, m.mailId DESC")
+    List<MailHeaderView> findFolderPageAfter(@Param("ownerId") Long ownerId,
+                                             @Param("folderName") String folderName,
+                                             @Param("timestamp") LocalDateTime timestamp,
+                                             @Param("mailId") Long mailId,
+                                             Pageable pageable);
+
+    // First page of "All Mail" (excludes drafts and trash)
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName NOT IN ('DRAFTS', 'TRASH') " +
+            "ORDER BY m.timestamp DESC, m.mailId DESC")
+    List<MailHeaderView> findAllMailPage(@Param("ownerId") Long ownerId, Pageable pageable);
+
+    // Next page of "All Mail", strictly after the (timestamp, mailId) cursor
+    @Query(HEADER_SELECT + "WHERE m.ownerId = :ownerId AND m.folderName NOT IN ('DRAFTS', 'TRASH') " +
+            "AND (m.timestamp < :timestamp OR (m.timestamp = :timestamp AND m.mailId < :mailId)) " +
+            "ORDER BY m.timestamp DESC, m.mailId DESC")
+    List<MailHeaderView> findAllMailPageAfter(@Param("ownerId") Long ownerId,
+                                              @Param("timestamp") LocalDateTime timestamp,
+                                              @Param("mailId") Long mailId,
+                                              Pageable pageable);
 }
@@ -0,0 +1,28 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import jakarta.persistence.LockModeType;
+
+@Repository
+public interface MessageContentRepository extends JpaRepository<MessageContent, Long> {
+
+    // Shared lock until the caller commits: deleteOrphans waits instead of removing
+    // a row that is about to be linked to a new mail
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    Optional<MessageContent> findFirstByContentHashOrderByIdAsc(String contentHash);
+
+    // Content no mail points to any more (all its copies were deleted, or a draft was edited)
+    // and no pending delivery still needs
+    @Modifying
+    @Query("DELETE FROM MessageContent c WHERE NOT EXISTS (SELECT m.mailId FROM Mail m WHERE m.content = c) " +
+            "AND NOT EXISTS (SELECT o.id FROM MailOutbox o WHERE o.content = c)")
+    int deleteOrphans();
+}
@@ -0,0 +1,15 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+/**
+ * Identity columns of a user, without the eagerly fetched folder list
+ */
+public interface UserIdentityView {
+
+    Long getUserId();
+
+    String getEmail();
+
+    String getFirstName();
+
+    String getLastName();
+}
@@ -2,15 +2,38 @@ package eg.edu.alexu.cse.mail_server.Repository;
 
 import eg.edu.alexu.cse.mail_server.Entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import jakarta.persistence.QueryHint;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByEmail(String email);
 
+    // Id and name only: does not load the user entity nor its user_folders collection
+    @Query("SELECT u.userId AS userId, u.email AS email, u.firstName AS firstName, u.lastName AS lastName " +
+            "FROM User u WHERE u.email = :email")
+    Optional<UserIdentityView> findIdentityByEmail(@Param("email") String email);
+
+    // Identities of several users in one query (unknown emails are simply missing from the result)
+    List<UserIdentityView> findByEmailIn(Collection<String> emails);
+
+    // Every registered email, streamed (see RecipientFilter), needs an open transaction
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT u.email FROM User u")
+    Stream<String> streamAllEmails();
+
     //User findByEmail(String email);
 
     User findById(long id);
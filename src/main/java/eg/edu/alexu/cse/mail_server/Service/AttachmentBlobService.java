@@ -0,0 +1,209 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Entity.AttachmentBlob;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentBlobRepository;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentRepository;
+import eg.edu.alexu.cse.mail_server.Repository.BlobReferenceView;
+import eg.edu.alexu.cse.mail_server.Service.FileStorageService.StagedFile;
+import eg.edu.alexu.cse.mail_server.Service.SendMetrics.AttachmentTrace;
+import jakarta.transaction.Transactional;
+
+/**
+ * Content-addressed attachment storage with reference counting
+ * Identical files are stored once (see AttachmentBlob), every Attachment row
+ * holds one reference. Releasing the last reference deletes the blob row and,
+ * once that is committed, its file
+ */
+@Service
+public class AttachmentBlobService {
+
+    private final AttachmentBlobRepository attachmentBlobRepository;
+    private final AttachmentRepository attachmentRepository;
+    private final FileStorageService fileStorageService;
+    private final SendMetrics sendMetrics;
+    private final PreviewService previewService;
+    private final TransactionTemplate newTransaction;
+
+    public AttachmentBlobService(AttachmentBlobRepository attachmentBlobRepository,
+                                 AttachmentRepository attachmentRepository,
+                                 FileStorageService fileStorageService,
+                                 SendMetrics sendMetrics,
+                                 PreviewService previewService,
+                                 PlatformTransactionManager transactionManager) {
+        this.attachmentBlobRepository = attachmentBlobRepository;
+        this.attachmentRepository = attachmentRepository;
+        this.fileStorageService = fileStorageService;
+        this.sendMetrics = sendMetrics;
+        this.previewService = previewService;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Store an uploaded file, or find the blob that already holds the same bytes
+     *
+     * @param file the uploaded file
+     * @param references number of Attachment rows the caller will create for it
+     * @return the blob, its refCount already includes the new references
+     * @throws IOException if file writing fails
+     */
+    @Transactional
+    public AttachmentBlob store(MultipartFile file, long references) throws IOException {
+        AttachmentTrace trace = sendMetrics.startAttachment(file.getSize());
+        StagedFile staged = fileStorageService.stageFile(file);
+        // Streaming the upload to disk while hashing it
+        trace.stage("disk_write");
+        AttachmentBlob blob = store(staged, references);
+        // Deduplication lookup, then the file move and blob insert, or a reference on the existing blob
+        trace.stage("blob");
+        trace.finish();
+        // Image and PDF previews are made in the background once the upload commits
+        previewService.submitAfterCommit(blob.getSha256(), file.getContentType());
+        return blob;
+    }
+
+    /**
+     * Add a reference to the file of an existing attachment (copy of a mail)
+     * Attachments stored before blobs existed are moved into a blob first
+     */
+    @Transactional
+    public AttachmentBlob share(Attachment attachment) throws IOException {
+        if (attachment.getBlob() != null) {
+            attachmentBlobRepository.addReferences(attachment.getBlob().getId(), 1);
+            return attachment.getBlob();
+        }
+        Path legacyFile = Paths.get(attachment.getFilePath());
+        // One reference for the existing attachment, one for the copy
+        AttachmentBlob blob = store(fileStorageService.stageFile(legacyFile), 2);
+        attachment.setBlob(blob);
+        attachment.setFilePath(null);
+        afterCommit(() -> Files.deleteIfExists(legacyFile));
+        return blob;
+    }
+
+    /**
+     * Release the references held by the attachments of these mails, call before deleting them
+     * Blobs left without references are deleted after the caller's transaction commits
+     */
+    @Transactional
+    public void releaseForMails(Collection<Long> mailIds) {
+        if (mailIds.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> references = new HashMap<>();
+        for (BlobReferenceView reference : attachmentRepository.countBlobReferences(mailIds)) {
+            references.put(reference.getBlobId(), reference.getReferences());
+        }
+        releaseReferences(references);
+    }
+
+    /**
+     * Release references taken by store or share
+     * @param references number of references to release, by blob id
+     */
+    @Transactional
+    public void releaseReferences(Map<Long, Long> references) {
+        if (references.isEmpty()) {
+            return;
+        }
+        references.forEach((blobId, count) -> attachmentBlobRepository.addReferences(blobId, -count));
+        List<Long> blobIds = new ArrayList<>(references.keySet());
+        // The attachment rows are only gone once the caller commits
+        afterCommit(() -> deleteUnreferenced(blobIds));
+    }
+
+    private AttachmentBlob store(StagedFile staged, long references) throws IOException {
+        // Row first: it stays locked until the caller commits, so a delete of the same
+        // content waits for us, or we wait for it and find its file gone
+        attachmentBlobRepository.upsertReferences(staged.sha256(), staged.size(),
+                fileStorageService.blobPath(staged.sha256()).toString(), references, LocalDateTime.now());
+        AttachmentBlob blob = attachmentBlobRepository.findBySha256(staged.sha256())
+                .orElseThrow(() -> new RuntimeException("Attachment blob not found: " + staged.sha256()));
+        if (Files.exists(Paths.get(blob.getStoragePath()))) {
+            fileStorageService.discard(staged);
+            return blob;
+        }
+        Path path = fileStorageService.promote(staged);
+        afterRollback(() -> {
+            if (!attachmentBlobRepository.existsBySha256(staged.sha256())) {
+                Files.deleteIfExists(path);
+            }
+        });
+        return blob;
+    }
+
+    /**
+     * Delete blobs nobody references any more, rows and then files in one transaction
+     * A deleted row stays locked until the files are gone, so an upload of the same
+     * content waits and then stores the file again
+     */
+    private void deleteUnreferenced(List<Long> blobIds) {
+        newTransaction.executeWithoutResult(status -> {
+            for (AttachmentBlob blob : attachmentBlobRepository.findUnreferenced(blobIds)) {
+                if (attachmentBlobRepository.deleteIfUnreferenced(blob.getId()) == 0) {
+                    // Referenced again meanwhile
+                    continue;
+                }
+                try {
+                    Files.deleteIfExists(Paths.get(blob.getStoragePath()));
+                    previewService.delete(blob.getSha256());
+                } catch (IOException e) {
+                    System.err.println("Could not delete attachment file " + blob.getStoragePath() + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private interface FileAction {
+        void run() throws IOException;
+    }
+
+    private void afterRollback(FileAction action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_ROLLED_BACK) {
+                    return;
+                }
+                try {
+                    action.run();
+                } catch (IOException e) {
+                    System.err.println("Attachment cleanup failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void afterCommit(FileAction action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    action.run();
+                } catch (IOException e) {
+                    System.err.println("Attachment cleanup failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+}
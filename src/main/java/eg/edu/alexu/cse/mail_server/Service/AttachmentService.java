@@ -4,13 +4,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Entity.AttachmentBlob;
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
 import eg.edu.alexu.cse.mail_server.Repository.AttachmentRepository;
 import eg.edu.alexu.cse.mail_server.dto.AttachmentDTO;
@@ -20,8 +24,16 @@ import lombok.RequiredArgsConstructor;
 @Service
 @RequiredArgsConstructor
 public class AttachmentService {
+    private static final String DOWNLOAD_URL_PREFIX = "/api/mail/attachments/id/";
+
     private final AttachmentRepository attachmentRepository;
     private final FileStorageService fileStorageService;
+    private final AttachmentBlobService attachmentBlobService;
+    private final TextExtractionService textExtractionService;
+
+    // Attachments smaller than this are still sent inline when a mail is opened by reference
+    @Value("${mail.attachments.inline-threshold-bytes:65536}")
+    private long inlineThresholdBytes;
 
     /**
      * Save attachment file to disk and persist metadata to database
@@ -32,15 +44,65 @@ public class AttachmentService {
      * @throws IOException if file operations fail
      */
     public Attachment saveAttachment(MultipartFile file, Mail mail) throws IOException {
-        // Use FileStorageService to handle file system operations
-        Attachment attachment = fileStorageService.saveFile(file, mail);
-        
-        // Extract text content for searching (optional)
-        String indexedContent = extractTextContent(file);
-        attachment.setIndexedContent(indexedContent);
-        
+        // File stored once by content, shared with identical attachments
+        AttachmentBlob blob = attachmentBlobService.store(file, 1);
+
         // Save attachment metadata to database
-        return attachmentRepository.save(attachment);
+        Attachment saved = attachmentRepository.save(attachmentFor(file, blob, mail));
+        // Text for search is extracted in the background once the upload commits
+        textExtractionService.submitAfterCommit(List.of(saved.getId()));
+        return saved;
+    }
+
+    /**
+     * Build the metadata of an attachment whose file is already stored, without persisting it
+     * Used by the send fan-out, which stores each file once and inserts the rows of all copies in one batch
+     *
+     * @param file The uploaded file, only its name and type are read
+     * @param blob The stored content, the caller holds a reference for this attachment
+     * @param mail The mail this attachment belongs to
+     * @return Unsaved attachment entity
+     */
+    public Attachment attachmentFor(MultipartFile file, AttachmentBlob blob, Mail mail) {
+        String originalFilename = file.getOriginalFilename();
+        if (originalFilename == null || originalFilename.isEmpty()) {
+            originalFilename = "unnamed_file";
+        }
+        return Attachment.builder()
+                .fileName(originalFilename)
+                .storedFileName(newStoredFileName(originalFilename))
+                .contentType(file.getContentType())
+                .fileSize(blob.getFileSize())
+                .blob(blob)
+                // Text for searching is extracted later by TextExtractionService
+                .uploadDate(LocalDateTime.now())
+                .mail(mail)
+                .build();
+    }
+
+    /**
+     * Unique name of an attachment row, used in download links: UUID_originalFilename
+     */
+    public static String newStoredFileName(String fileName) {
+        return UUID.randomUUID().toString() + "_" + fileName;
+    }
+
+    /**
+     * Copy an attachment to another mail, the file is shared rather than copied
+     */
+    public Attachment copyAttachment(Attachment original, Mail mail) throws IOException {
+        AttachmentBlob blob = attachmentBlobService.share(original);
+        return attachmentRepository.save(Attachment.builder()
+                .fileName(original.getFileName())
+                .storedFileName(newStoredFileName(original.getFileName()))
+                .contentType(original.getContentType())
+                .fileSize(original.getFileSize())
+                .blob(blob)
+                .indexedContent(original.getIndexedContent())
+                .indexedAt(original.getIndexedAt())
+                .uploadDate(LocalDateTime.now())
+                .mail(mail)
+                .build());
     }
 
     /**
@@ -68,7 +130,7 @@ public class AttachmentService {
 
         for (Attachment attachment : attachments) {
 
-            byte[] fileData = readAttachmentFile(attachment.getFilePath());
+            byte[] fileData = readAttachmentFile(attachment.getStoragePath());
 
             // Encode to Base64 for JSON transfer
             String base64Data = java.util.Base64.getEncoder().encodeToString(fileData);
@@ -79,6 +141,7 @@ public class AttachmentService {
                     .contentType(attachment.getContentType())
                     .fileSize(attachment.getFileSize())
                     .fileData(base64Data)
+                    .downloadUrl(DOWNLOAD_URL_PREFIX + attachment.getId())
                     .build();
 
             attachmentDTOs.add(dto);
@@ -87,6 +150,38 @@ public class AttachmentService {
         return attachmentDTOs;
     }
 
+    /**
+     * Get all attachments of a mail by reference: metadata and a download URL
+     * Only files under the inline threshold are read and sent as Base64,
+     * the others are fetched by the client when needed
+     *
+     * @param mailId the ID of the mail
+     * @return list of AttachmentDTOs, fileData is null for files at or above the threshold
+     * @throws IOException if reading a small file fails
+     */
+    public List<AttachmentDTO> getAttachmentsByReference(Long mailId) throws IOException {
+        List<Attachment> attachments = getAttachmentsByMailId(mailId);
+        List<AttachmentDTO> attachmentDTOs = new ArrayList<>(attachments.size());
+
+        for (Attachment attachment : attachments) {
+            String base64Data = null;
+            if (attachment.getFileSize() != null && attachment.getFileSize() < inlineThresholdBytes) {
+                base64Data = java.util.Base64.getEncoder().encodeToString(readAttachmentFile(attachment.getStoragePath()));
+            }
+
+            attachmentDTOs.add(AttachmentDTO.builder()
+                    .id(attachment.getId())
+                    .fileName(attachment.getFileName())
+                    .contentType(attachment.getContentType())
+                    .fileSize(attachment.getFileSize())
+                    .fileData(base64Data)
+                    .downloadUrl(DOWNLOAD_URL_PREFIX + attachment.getId())
+                    .build());
+        }
+
+        return attachmentDTOs;
+    }
+
     /**
      * Get attachment data by attachment ID
      * (Optional - for downloading specific attachment)
@@ -95,7 +190,7 @@ public class AttachmentService {
         Attachment attachment = attachmentRepository.findById(attachmentId)
                 .orElseThrow(() -> new RuntimeException("Attachment not found"));
 
-        Path path = Paths.get(attachment.getFilePath());
+        Path path = Paths.get(attachment.getStoragePath());
         return Files.readAllBytes(path);
     }
 
@@ -109,9 +204,4 @@ public class AttachmentService {
         return fileStorageService.readFileBytes(filePath);
     }
 
-    private String extractTextContent(MultipartFile file) {
-
-        return "";
-    }
-
 }
@@ -17,10 +17,13 @@ import java.util.List;
 public class ContactService {
     private final ContactRepository contactRepository;
     private final UserRepository userRepository;
+    private final UserIdentityCache userIdentityCache;
 
     public void addContact(ContactDTO dto, String email){
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("User not found with email: " + email));
+        Long userId = userIdentityCache.find(email)
+                .orElseThrow(() -> new RuntimeException("User not found with email: " + email))
+                .userId();
+        User user = userRepository.getReferenceById(userId);
 
         if (dto.getEmails() == null || dto.getEmails().isEmpty()) {
             throw new IllegalArgumentException("Contact must have at least one email address");
@@ -32,7 +35,7 @@ public class ContactService {
             }
 
             // Verify that the contact email exists in the database
-            if (!userRepository.findByEmail(contactEmail).isPresent()) {
+            if (userIdentityCache.find(contactEmail).isEmpty()) {
                 throw new IllegalArgumentException("Email not found in database: " + contactEmail);
             }
         }
@@ -65,7 +68,7 @@ public class ContactService {
             }
 
             // Verify that the contact email exists in the database
-            if (!userRepository.findByEmail(contactEmail).isPresent()) {
+            if (userIdentityCache.find(contactEmail).isEmpty()) {
                 throw new IllegalArgumentException("Email not found in database: " + contactEmail);
             }
         }
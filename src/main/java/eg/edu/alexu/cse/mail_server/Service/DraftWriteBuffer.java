@@ -0,0 +1,171 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind buffer for draft autosave
+ * An edit only replaces the latest version of the draft in memory, dirty drafts
+ * are written in one transaction every FLUSH_INTERVAL_MS, so a client saving
+ * every few seconds costs one update per interval instead of a load and a save per call
+ *
+ * A buffered draft is written before anything else touches it: MailService flushes
+ * it before a read or change by id, and flushes the owner's drafts before listing
+ * the drafts folder, searching, changing a folder and sending. What is left is written on shutdown
+ */
+@Service
+public class DraftWriteBuffer {
+
+    private static final long FLUSH_INTERVAL_MS = 2000;
+
+    /**
+     * Latest unsaved version of a draft
+     */
+    public record PendingDraft(Long draftId, Long ownerId, String receiver, String subject, String body,
+                               int priority, LocalDateTime savedAt) {
+    }
+
+    private final MailRepository mailRepository;
+    private final MessageContentService messageContentService;
+    private final FolderCounterService folderCounterService;
+    private final TransactionTemplate newTransaction;
+    private final Map<Long, PendingDraft> pending = new ConcurrentHashMap<>();
+
+    public DraftWriteBuffer(MailRepository mailRepository,
+                            MessageContentService messageContentService,
+                            FolderCounterService folderCounterService,
+                            PlatformTransactionManager transactionManager) {
+        this.mailRepository = mailRepository;
+        this.messageContentService = messageContentService;
+        this.folderCounterService = folderCounterService;
+        // Own transaction: a buffered edit is saved even if the caller that forced the flush rolls back
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Keep the latest version of a draft, replacing any version not written yet
+     */
+    public void buffer(PendingDraft draft) {
+        pending.put(draft.draftId(), draft);
+    }
+
+    /**
+     * Owner of a draft with an unsaved version, null if it has none
+     * The draft was already checked when that version was buffered
+     */
+    public Long pendingOwner(Long draftId) {
+        PendingDraft draft = pending.get(draftId);
+        return draft == null ? null : draft.ownerId();
+    }
+
+    /**
+     * Write one draft now if it has an unsaved version
+     */
+    public void flush(Long draftId) {
+        if (pending.isEmpty() || !pending.containsKey(draftId)) {
+            return;
+        }
+        flush(List.of(draftId));
+    }
+
+    /**
+     * Write the given drafts now, ids without an unsaved version are ignored
+     */
+    public void flushAll(Collection<Long> draftIds) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flush(draftIds.stream().filter(pending::containsKey).toList());
+    }
+
+    /**
+     * Write every unsaved draft of one owner now
+     */
+    public void flushOwner(Long ownerId) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flush(pending.values().stream()
+                .filter(draft -> draft.ownerId().equals(ownerId))
+                .map(PendingDraft::draftId)
+                .toList());
+    }
+
+    @Scheduled(fixedDelay = FLUSH_INTERVAL_MS)
+    public void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        flush(new ArrayList<>(pending.keySet()));
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flushPending();
+    }
+
+    /**
+     * Write the buffered versions of the drafts in one transaction
+     * Serialized so that an older version can never be written after a newer one.
+     * A version stays in the buffer until its write commits: a read that comes
+     * meanwhile still finds it, and waits here for the write instead of reading the old row.
+     * An edit arriving meanwhile replaces it and is written by the next flush
+     */
+    private synchronized void flush(List<Long> draftIds) {
+        List<PendingDraft> drafts = new ArrayList<>(draftIds.size());
+        for (Long draftId : draftIds) {
+            PendingDraft draft = pending.get(draftId);
+            if (draft != null) {
+                drafts.add(draft);
+            }
+        }
+        if (drafts.isEmpty()) {
+            return;
+        }
+        try {
+            newTransaction.executeWithoutResult(status -> write(drafts));
+        } catch (RuntimeException e) {
+            // Still buffered, the next flush retries
+            System.err.println("Could not save " + drafts.size() + " buffered drafts: " + e.getMessage());
+            throw e;
+        }
+        // Only the versions just written, a newer one stays buffered
+        drafts.forEach(draft -> pending.remove(draft.draftId(), draft));
+    }
+
+    private void write(List<PendingDraft> drafts) {
+        Set<Long> owners = new HashSet<>();
+        for (PendingDraft draft : drafts) {
+            // Content rows are immutable: point the draft to the new one, the old one is cleaned up once orphaned
+            MessageContent content = messageContentService.resolve(draft.subject(), draft.body());
+            int updated = mailRepository.updateDraft(draft.draftId(), draft.receiver(), content,
+                    content.getSubject(), Mail.snippetOf(draft.body()), draft.priority(), draft.savedAt());
+            // 0 when the draft was deleted meanwhile, its edit is dropped
+            if (updated > 0) {
+                owners.add(draft.ownerId());
+            }
+        }
+        for (Long ownerId : owners) {
+            folderCounterService.folderChanged(ownerId, MailFolders.DRAFTS);
+        }
+    }
+}
@@ -23,6 +23,7 @@ public class FilterBuilder {
     private IsReadFilter isReadFilter;
     private FolderFilter folderFilter;
     private HasAttachement hasAttachments;
+    private AttachmentFilter attachmentFilter;
 
     @Autowired
     public FilterBuilder(FilterFactory filterFactory) {
@@ -107,6 +108,13 @@ public class FilterBuilder {
         return this;
     }
 
+    public FilterBuilder withAttachmentFilter(String attachment) {
+        if (attachment == null || attachment.isEmpty()) return this;
+        attachmentFilter = (AttachmentFilter) filterFactory.createFilter("attachment");
+        attachmentFilter.setQuery(attachment);
+        return this;
+    }
+
     // Build method: return all active filters as a list
     public List<FilterStrategy> build() {
         List<FilterStrategy> filters = new java.util.ArrayList<>();
@@ -121,6 +129,7 @@ public class FilterBuilder {
         if (isReadFilter != null) filters.add(isReadFilter);
         if (folderFilter != null) filters.add(folderFilter);
         if (hasAttachments != null) filters.add(hasAttachments);
+        if (attachmentFilter != null) filters.add(attachmentFilter);
         return filters;
     }
 }
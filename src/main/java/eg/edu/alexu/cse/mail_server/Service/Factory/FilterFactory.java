@@ -1,6 +1,8 @@
 package eg.edu.alexu.cse.mail_server.Service.Factory;
 
 import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.ParsedTextCache;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache;
 import eg.edu.alexu.cse.mail_server.Service.Strategy.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -8,15 +10,20 @@ import org.springframework.stereotype.Component;
 @Component
 public class FilterFactory {
     private final UserRepository userRepository;
+    private final UserIdentityCache userIdentityCache;
+    private final ParsedTextCache parsedTextCache;
 
     @Autowired
-    public FilterFactory(UserRepository userRepository) {
+    public FilterFactory(UserRepository userRepository, UserIdentityCache userIdentityCache,
+                         ParsedTextCache parsedTextCache) {
         this.userRepository = userRepository;
+        this.userIdentityCache = userIdentityCache;
+        this.parsedTextCache = parsedTextCache;
     }
 
     public FilterStrategy createFilter(String filter) {
         return switch (filter) {
-            case "sender"-> new SenderFilter(userRepository) ;
+            case "sender"-> new SenderFilter(userIdentityCache) ;
             case "receiver" -> new ReceiverFilter(userRepository) ;
             case "subject" -> new SubjectFilter() ;
             case "body" -> new BodyFilter() ;
@@ -27,6 +34,7 @@ public class FilterFactory {
             case "isRead" -> new IsReadFilter() ;
             case "folder" -> new FolderFilter() ;
             case "hasAttachments" -> new HasAttachement() ;
+            case "attachment" -> new AttachmentFilter(parsedTextCache) ;
             default -> throw new IllegalArgumentException("undefined filter");
         } ;
     }
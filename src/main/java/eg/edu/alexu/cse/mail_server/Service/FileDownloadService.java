@@ -0,0 +1,265 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves files with HTTP byte ranges (206 Partial Content, multiple ranges, If-Range)
+ * so interrupted downloads resume where they stopped and media players can seek
+ *
+ * Bytes never go through a heap buffer of the file's size: a single range (or the whole
+ * file) is handed to the container's sendfile when it supports it (Tomcat NIO does),
+ * otherwise FileChannel.transferTo copies it to the response in the JDK's small chunks
+ */
+@Service
+public class FileDownloadService {
+
+    // Tomcat request attributes for sendfile (org.apache.coyote.Constants)
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // More ranges than this are answered with the whole file (guards against range abuse)
+    private static final int MAX_RANGES = 16;
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    /**
+     * One inclusive byte range of the file
+     */
+    record ByteRange(long start, long end) {
+
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    /**
+     * Write a file, or the ranges asked for, to the response
+     *
+     * @param file the file to send
+     * @param contentType type of the file
+     * @param contentDisposition Content-Disposition header
+     * @param etag strong validator of the file content, quoted, null to only use Last-Modified
+     * @throws IOException if the file cannot be read
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file,
+                      String contentType, String contentDisposition, String etag) throws IOException {
+        if (!Files.isReadable(file)) {
+            throw new IOException("File not found or not readable: " + file);
+        }
+        long size = Files.size(file);
+        Instant lastModified = Files.getLastModifiedTime(file).toInstant().truncatedTo(ChronoUnit.SECONDS);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        response.setHeader(HttpHeaders.LAST_MODIFIED, HTTP_DATE.format(lastModified));
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !rangeStillValid(request.getHeader(HttpHeaders.IF_RANGE), etag, lastModified)) {
+            sendWhole(request, response, file, size, contentType);
+            return;
+        }
+
+        List<ByteRange> ranges = parseRanges(rangeHeader, size);
+        if (ranges == null) {
+            // Not a byte range we understand: ignored, as the spec allows
+            sendWhole(request, response, file, size, contentType);
+            return;
+        }
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+            response.setContentLength(0);
+            return;
+        }
+
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, size));
+            send(request, response, file, range);
+        } else {
+            sendMultipart(response, file, size, contentType, ranges);
+        }
+    }
+
+    private void sendWhole(HttpServletRequest request, HttpServletResponse response, Path file, long size,
+                           String contentType) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(contentType);
+        if (size == 0) {
+            response.setContentLength(0);
+            return;
+        }
+        send(request, response, file, new ByteRange(0, size - 1));
+    }
+
+    /**
+     * One range as the whole body: sendfile when the container offers it, transferTo otherwise
+     */
+    private void send(HttpServletRequest request, HttpServletResponse response, Path file, ByteRange range)
+            throws IOException {
+        response.setContentLengthLong(range.length());
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // The container writes the file straight from the page cache once this handler returns
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, range.start());
+            request.setAttribute(SENDFILE_END, range.end() + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfer(channel, range, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    /**
+     * Several ranges as multipart/byteranges, each part copied with transferTo
+     */
+    private void sendMultipart(HttpServletResponse response, Path file, long size, String contentType,
+                               List<ByteRange> ranges) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, size) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + range.length();
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += end.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                transfer(channel, ranges.get(i), target);
+            }
+        }
+        out.write(end);
+    }
+
+    private static void transfer(FileChannel channel, ByteRange range, WritableByteChannel target) throws IOException {
+        long position = range.start();
+        long remaining = range.length();
+        while (remaining > 0) {
+            long written = channel.transferTo(position, remaining, target);
+            if (written <= 0) {
+                throw new IOException("File ended before the requested range");
+            }
+            position += written;
+            remaining -= written;
+        }
+    }
+
+    /**
+     * If-Range: the ranges only apply if the file is still the one the client has part of
+     * An ETag must match exactly, a date must equal Last-Modified
+     */
+    private static boolean rangeStillValid(String ifRange, String etag, Instant lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        if (ifRange.startsWith("W/")) {
+            // Weak validators cannot be used for ranges
+            return false;
+        }
+        try {
+            return Instant.from(HTTP_DATE.parse(ifRange)).equals(lastModified);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parse "bytes=0-99,200-,-50"
+     * @return the satisfiable ranges in request order (empty if none is), null if the header
+     *         is malformed or asks for too many ranges and must be ignored
+     */
+    static List<ByteRange> parseRanges(String header, long size) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            try {
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, size - suffix);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            if (start < size && start <= end) {
+                ranges.add(new ByteRange(start, end));
+            }
+        }
+        return ranges;
+    }
+
+    private static String contentRange(ByteRange range, long size) {
+        return "bytes " + range.start() + "-" + range.end() + "/" + size;
+    }
+}
@@ -1,10 +1,19 @@
 package eg.edu.alexu.cse.mail_server.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
 
 import org.springframework.core.io.Resource;
@@ -12,8 +21,6 @@ import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import eg.edu.alexu.cse.mail_server.Entity.Attachment;
-import eg.edu.alexu.cse.mail_server.Entity.Mail;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 
@@ -26,6 +33,14 @@ import lombok.RequiredArgsConstructor;
 public class FileStorageService {
     
     private static final String UPLOAD_DIR_NAME = "mansy-mail-uploads";
+    // Content-addressed attachment files, see promote
+    private static final String BLOB_DIR_NAME = "blobs";
+    // Uploads being hashed, moved to blobs once their digest is known
+    private static final String STAGING_DIR_NAME = "staging";
+    // Gzipped text extracted from blobs, see ParsedTextCache
+    private static final String TEXT_CACHE_DIR_NAME = "text-cache";
+    // Bytes held in memory per upload while it is staged
+    private static final int STAGING_BUFFER_SIZE = 64 * 1024;
     private final Path uploadDirectory;
 
     public FileStorageService() {
@@ -52,72 +67,137 @@ public class FileStorageService {
     }
 
     /**
-     * Save a file to the file system
-     * 
-     * @param file The multipart file to save
-     * @param mail The mail entity this attachment belongs to
-     * @return Attachment entity with file metadata
+     * A file written to the staging area while its SHA-256 was computed
+     */
+    public record StagedFile(Path path, String sha256, long size) {
+    }
+
+    /**
+     * Copy an uploaded file to the staging area, hashing it on the way
+     * Read through getInputStream() (never getBytes()), so the upload is
+     * streamed from the multipart temp file and never held in memory as a whole
+     *
+     * @param file The multipart file to stage
+     * @return the staged file, to be promoted or discarded
      * @throws IOException if file writing fails
      */
-    public Attachment saveFile(MultipartFile file, Mail mail) throws IOException {
+    public StagedFile stageFile(MultipartFile file) throws IOException {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("Cannot save empty file");
         }
+        try (InputStream in = file.getInputStream()) {
+            return stage(in);
+        }
+    }
 
-        // Generate unique filename: UUID_originalFilename
-        String originalFilename = file.getOriginalFilename();
-        if (originalFilename == null || originalFilename.isEmpty()) {
-            originalFilename = "unnamed_file";
+    /**
+     * Same as stageFile(MultipartFile) for a file already on disk (legacy per-mail files)
+     */
+    public StagedFile stageFile(Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            return stage(in);
         }
-        
-        String storedFileName = UUID.randomUUID().toString() + "_" + originalFilename;
-        
-        // Create subdirectory for this mail (optional, for organization)
-        Path mailDirectory = uploadDirectory.resolve(String.valueOf(mail.getMailId()));
-        if (!Files.exists(mailDirectory)) {
-            Files.createDirectories(mailDirectory);
+    }
+
+    /**
+     * Copy a stream into a new staging file through a FileChannel, one STAGING_BUFFER_SIZE
+     * chunk at a time: the digest and the size are updated from the same buffer
+     * the bytes are written from, so heap use does not depend on the file size
+     */
+    private StagedFile stage(InputStream in) throws IOException {
+        Path stagingDirectory = uploadDirectory.resolve(STAGING_DIR_NAME);
+        Files.createDirectories(stagingDirectory);
+        Path staged = stagingDirectory.resolve(UUID.randomUUID().toString());
+
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(STAGING_BUFFER_SIZE);
+        long size = 0;
+        try (ReadableByteChannel source = Channels.newChannel(in);
+             FileChannel target = FileChannel.open(staged, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.array(), 0, buffer.limit());
+                size += buffer.limit();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
         }
-        
-        // Full path where file will be stored
-        Path filePath = mailDirectory.resolve(storedFileName);
-        
-        // Write file bytes to disk
-        Files.write(filePath, file.getBytes());
-        
-        // Build and return Attachment entity
-        return Attachment.builder()
-                .fileName(originalFilename)
-                .storedFileName(storedFileName)
-                .contentType(file.getContentType())
-                .fileSize(file.getSize())
-                .filePath(filePath.toString())
-                .uploadDate(LocalDateTime.now())
-                .mail(mail)
-                .build();
+        return new StagedFile(staged, HexFormat.of().formatHex(digest.digest()), size);
+    }
+
+    /**
+     * Move a staged file to its content-addressed place: blobs/<first 2 hex digits>/<sha256>
+     * If that file already exists it has the same bytes, it is simply replaced
+     *
+     * @return full path of the blob file
+     */
+    public Path promote(StagedFile staged) throws IOException {
+        Path target = blobPath(staged.sha256());
+        Files.createDirectories(target.getParent());
+        Files.move(staged.path(), target, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    /**
+     * Drop a staged file whose content is already stored
+     */
+    public void discard(StagedFile staged) throws IOException {
+        Files.deleteIfExists(staged.path());
+    }
+
+    public Path blobPath(String sha256) {
+        return uploadDirectory.resolve(BLOB_DIR_NAME).resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    /**
+     * JPEG preview of a blob, next to it, see PreviewService
+     */
+    public Path previewPath(String sha256, int size) {
+        return blobPath(sha256).resolveSibling(sha256 + ".preview-" + size + ".jpg");
+    }
+
+    /**
+     * Marker of a blob no preview can be made of
+     */
+    public Path previewFailedPath(String sha256) {
+        return blobPath(sha256).resolveSibling(sha256 + ".preview-failed");
+    }
+
+    public Path textCachePath(String sha256) {
+        return uploadDirectory.resolve(TEXT_CACHE_DIR_NAME).resolve(sha256.substring(0, 2)).resolve(sha256 + ".txt.gz");
     }
 
     /**
      * Load a file from the file system as a Resource
      * 
-     * @param storedFileName The unique filename stored on disk
-     * @param mailId The ID of the mail (for subdirectory lookup)
+     * @param filePath Full path to the file
      * @return Resource representing the file
      * @throws IOException if file not found or cannot be read
      */
-    public Resource loadFileAsResource(String storedFileName, Long mailId) throws IOException {
+    public Resource loadFileAsResource(String filePath) throws IOException {
         try {
-            Path mailDirectory = uploadDirectory.resolve(String.valueOf(mailId));
-            Path filePath = mailDirectory.resolve(storedFileName);
-            
-            Resource resource = new UrlResource(filePath.toUri());
+            Resource resource = new UrlResource(Paths.get(filePath).toUri());
             
             if (resource.exists() && resource.isReadable()) {
                 return resource;
             } else {
-                throw new IOException("File not found or not readable: " + storedFileName);
+                throw new IOException("File not found or not readable: " + filePath);
             }
         } catch (Exception e) {
-            throw new IOException("Error loading file: " + storedFileName, e);
+            throw new IOException("Error loading file: " + filePath, e);
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
 
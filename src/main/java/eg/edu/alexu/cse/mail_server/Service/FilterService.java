@@ -30,11 +30,13 @@ public class FilterService {
     private final MailRepository mailRepository;
     private final MailFilter mailFilter;
     private final FilterBuilder filterBuilder ;
+    private final DraftWriteBuffer draftWriteBuffer;
 
     @Autowired
-    public FilterService(MailRepository mailRepository, FilterBuilder filterBuilder) {
+    public FilterService(MailRepository mailRepository, FilterBuilder filterBuilder, DraftWriteBuffer draftWriteBuffer) {
         this.mailRepository = mailRepository;
         this.filterBuilder = filterBuilder;
+        this.draftWriteBuffer = draftWriteBuffer;
         this.mailFilter = new MailFilter() ;
 
     }
@@ -49,7 +51,8 @@ public class FilterService {
             throw new IllegalArgumentException("User ID is required for filtering");
         }
 
-        // Get only emails related to this user
+        // Get only emails related to this user, with their buffered draft edits
+        draftWriteBuffer.flushOwner(dto.getUserId());
         List<Mail> mails = mailRepository.findAllByUserId(dto.getUserId());
         List<FilterStrategy> activeFilters = buildFilters(dto) ;
 
@@ -72,7 +75,8 @@ public class FilterService {
             throw new IllegalArgumentException("User ID is required for filtering");
         }
 
-        // Get only emails related to this user
+        // Get only emails related to this user, with their buffered draft edits
+        draftWriteBuffer.flushOwner(dto.getUserId());
         List<Mail> mails = mailRepository.findAllByUserId(dto.getUserId());
         List<FilterStrategy> activeFilters = buildFilters(dto) ;
 
@@ -115,6 +119,7 @@ public class FilterService {
                 .withReceiverFilter(filterDTO.getReceiver())
                 .withFolderFilter(filterDTO.getFolder())
                 .withHasAttachmentsFilter(filterDTO.getHasAttachments())
+                .withAttachmentFilter(filterDTO.getAttachment())
                 .build();
     }
 
@@ -0,0 +1,217 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import eg.edu.alexu.cse.mail_server.Entity.FolderCounter;
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Repository.FolderCountView;
+import eg.edu.alexu.cse.mail_server.Repository.FolderCounterRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+import eg.edu.alexu.cse.mail_server.dto.FolderSummaryDto;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Keeps the materialized per-folder counters (folder_counters) in sync with the mail table
+ * Every method joins the caller's transaction, so a counter change commits
+ * or rolls back together with the mail change that caused it
+ */
+@Service
+@RequiredArgsConstructor
+public class FolderCounterService {
+    private final FolderCounterRepository folderCounterRepository;
+    private final MailRepository mailRepository;
+
+    /**
+     * A mail was added to a folder (sent, delivered, drafted, copied or moved in)
+     */
+    @Transactional
+    public void mailAdded(Long ownerId, String folderName, boolean isRead) {
+        adjust(ownerId, folderName, 1, isRead ? 0 : 1);
+    }
+
+    /**
+     * A mail left a folder (moved out or permanently deleted)
+     */
+    @Transactional
+    public void mailRemoved(Long ownerId, String folderName, boolean isRead) {
+        adjust(ownerId, folderName, -1, isRead ? 0 : -1);
+    }
+
+    /**
+     * Several mails left their folders at once, grouped to one update per folder
+     */
+    @Transactional
+    public void mailsRemoved(List<Mail> mails) {
+        Map<Long, Map<String, List<Mail>>> byOwnerAndFolder = mails.stream()
+                .collect(Collectors.groupingBy(Mail::getOwnerId, Collectors.groupingBy(Mail::getFolderName)));
+        byOwnerAndFolder.forEach((ownerId, folders) -> folders.forEach((folderName, folderMails) -> {
+            long unread = folderMails.stream().filter(mail -> !mail.isRead()).count();
+            adjust(ownerId, folderName, -folderMails.size(), -unread);
+        }));
+    }
+
+    /**
+     * One mail was added to the same folder of each owner (send fan-out)
+     * A single update for all owners, rows are only created for owners that have none yet
+     */
+    @Transactional
+    public void mailAddedToAll(Collection<Long> ownerIds, String folderName, boolean isRead) {
+        if (ownerIds.isEmpty()) {
+            return;
+        }
+        int unreadDelta = isRead ? 0 : 1;
+        int updated = folderCounterRepository.adjustAll(ownerIds, folderName, 1, unreadDelta);
+        if (updated < ownerIds.size()) {
+            Set<Long> missing = new HashSet<>(ownerIds);
+            folderCounterRepository.findOwnerIdsWithFolder(ownerIds, folderName).forEach(missing::remove);
+            for (Long ownerId : missing) {
+                adjust(ownerId, folderName, 1, unreadDelta);
+            }
+        }
+    }
+
+    /**
+     * Mails were added to a folder in bulk
+     */
+    @Transactional
+    public void mailsAdded(Long ownerId, String folderName, long total, long unread) {
+        adjust(ownerId, folderName, total, unread);
+    }
+
+    /**
+     * Mails left a folder in bulk
+     */
+    @Transactional
+    public void mailsRemoved(Long ownerId, String folderName, long total, long unread) {
+        adjust(ownerId, folderName, -total, -unread);
+    }
+
+    /**
+     * The read flag of several mails of a folder changed
+     */
+    @Transactional
+    public void readChanged(Long ownerId, String folderName, boolean nowRead, long count) {
+        adjust(ownerId, folderName, 0, nowRead ? -count : count);
+    }
+
+    /**
+     * The read flag of a mail changed, callers must only report real changes
+     */
+    @Transactional
+    public void readChanged(Long ownerId, String folderName, boolean nowRead) {
+        adjust(ownerId, folderName, 0, nowRead ? -1 : 1);
+    }
+
+    /**
+     * All mails of a folder moved to a new folder name
+     */
+    @Transactional
+    public void folderRenamed(Long ownerId, String oldName, String newName) {
+        folderCounterRepository.findByOwnerIdAndFolderName(ownerId, oldName).ifPresent(counter -> {
+            folderCounterRepository.clearFolder(ownerId, oldName);
+            adjust(ownerId, newName, counter.getTotalCount(), counter.getUnreadCount());
+        });
+    }
+
+    /**
+     * A folder and all of its mails were deleted
+     */
+    @Transactional
+    public void folderDeleted(Long ownerId, String folderName) {
+        folderCounterRepository.clearFolder(ownerId, folderName);
+    }
+
+    /**
+     * A mail of the folder changed without changing the counts (e.g. draft edited)
+     * Only bumps the folder version
+     */
+    @Transactional
+    public void folderChanged(Long ownerId, String folderName) {
+        adjust(ownerId, folderName, 0, 0);
+    }
+
+    /**
+     * Current version of a folder, 0 if nothing was ever stored in it
+     * "all" gives the version of the All Mail view
+     */
+    public long getVersion(Long ownerId, String folderName) {
+        if (MailFolders.isAll(folderName)) {
+            return folderCounterRepository.sumVersionsExcludingDraftsAndTrash(ownerId);
+        }
+        return folderCounterRepository.findVersion(ownerId, MailFolders.normalize(folderName)).orElse(0L);
+    }
+
+    /**
+     * Counts of every folder of a user, one indexed read of folder_counters
+     * Folders without mails are left out
+     */
+    public List<FolderSummaryDto> getSummary(Long ownerId) {
+        List<FolderSummaryDto> summary = new ArrayList<>();
+        for (FolderCounter counter : folderCounterRepository.findByOwnerIdOrderByFolderNameAsc(ownerId)) {
+            if (counter.getTotalCount() == 0) {
+                continue;
+            }
+            summary.add(FolderSummaryDto.builder()
+                    .folderName(counter.getFolderName())
+                    .totalCount(counter.getTotalCount())
+                    .unreadCount(counter.getUnreadCount())
+                    .build());
+        }
+        return summary;
+    }
+
+    /**
+     * Build the counters from the mail table when the counter table is empty
+     * (first start after the table was introduced)
+     * Runs after the folder name normalization so counters use stored names
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(1)
+    @Transactional
+    public void initializeCounters() {
+        if (folderCounterRepository.count() > 0) {
+            return;
+        }
+        List<FolderCounter> counters = new ArrayList<>();
+        for (FolderCountView count : mailRepository.countByOwnerAndFolder()) {
+            counters.add(FolderCounter.builder()
+                    .ownerId(count.getOwnerId())
+                    .folderName(count.getFolderName())
+                    .totalCount(count.getTotalCount())
+                    .unreadCount(count.getUnreadCount())
+                    .version(1)
+                    .build());
+        }
+        folderCounterRepository.saveAll(counters);
+        System.out.println("Initialized " + counters.size() + " folder counters");
+    }
+
+    /**
+     * Recompute every counter from the mail table (after a bulk rewrite of mails)
+     * Existing rows are emptied rather than deleted so versions stay monotonic
+     */
+    @Transactional
+    public void rebuildCounters() {
+        folderCounterRepository.clearAll();
+        for (FolderCountView count : mailRepository.countByOwnerAndFolder()) {
+            adjust(count.getOwnerId(), count.getFolderName(), count.getTotalCount(), count.getUnreadCount());
+        }
+    }
+
+    private void adjust(Long ownerId, String folderName, long totalDelta, long unreadDelta) {
+        folderCounterRepository.adjust(ownerId, folderName, totalDelta, unreadDelta);
+    }
+}
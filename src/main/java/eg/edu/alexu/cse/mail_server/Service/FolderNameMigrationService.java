@@ -0,0 +1,42 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.util.Objects;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Service;
+
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Rewrites folder names stored before normalization (e.g. "trash", "Work")
+ * to their normalized form so folder queries can compare plain column values
+ * Only the distinct folder names are scanned, so this is cheap once everything is normalized
+ */
+@Service
+@RequiredArgsConstructor
+public class FolderNameMigrationService {
+    private final MailRepository mailRepository;
+    private final FolderCounterService folderCounterService;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(0)
+    @Transactional
+    public void normalizeStoredFolderNames() {
+        int renamed = 0;
+        for (String folderName : mailRepository.findDistinctFolderNames()) {
+            String normalized = MailFolders.normalize(folderName);
+            if (!Objects.equals(folderName, normalized)) {
+                renamed += mailRepository.renameFolderEverywhere(folderName, normalized);
+            }
+        }
+        if (renamed > 0) {
+            folderCounterService.rebuildCounters();
+            System.out.println("Normalized folder name of " + renamed + " mails");
+        }
+    }
+}
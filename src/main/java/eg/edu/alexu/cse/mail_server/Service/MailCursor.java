@@ -0,0 +1,48 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import eg.edu.alexu.cse.mail_server.Repository.MailHeaderView;
+
+/**
+ * Position inside a folder listing ordered by (timestamp DESC, mailId DESC)
+ * Encoded as an opaque URL-safe string so clients never depend on its format
+ */
+public record MailCursor(LocalDateTime timestamp, Long mailId) {
+
+    private static final String SEPARATOR = "|";
+
+    /**
+     * Build the cursor pointing right after the given mail
+     */
+    public static MailCursor after(MailHeaderView mail) {
+        return new MailCursor(mail.getTimestamp(), mail.getMailId());
+    }
+
+    public String encode() {
+        String raw = timestamp + SEPARATOR + mailId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor received from the client
+     * @throws IllegalArgumentException if the cursor was not produced by encode()
+     */
+    public static MailCursor decode(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int split = raw.lastIndexOf(SEPARATOR);
+            if (split < 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            LocalDateTime timestamp = LocalDateTime.parse(raw.substring(0, split));
+            Long mailId = Long.valueOf(raw.substring(split + 1));
+            return new MailCursor(timestamp, mailId);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+import eg.edu.alexu.cse.mail_server.dto.EmailViewDto;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Streams a whole "All Mail" view as NDJSON (one EmailViewDto per line)
+ * Mails are read through a database cursor and the persistence context is cleared every
+ * FLUSH_EVERY mails (mails and their fetched contents), so memory stays constant whatever
+ * the size of the mailbox
+ */
+@Service
+public class MailExportService {
+
+    // Flush to the client every FLUSH_EVERY mails so the first bytes arrive early
+    private static final int FLUSH_EVERY = 100;
+
+    private final MailRepository mailRepository;
+    private final UserIdentityCache userIdentityCache;
+    private final JsonMapper jsonMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public MailExportService(MailRepository mailRepository, UserIdentityCache userIdentityCache,
+                             JsonMapper jsonMapper, PlatformTransactionManager transactionManager) {
+        this.mailRepository = mailRepository;
+        this.userIdentityCache = userIdentityCache;
+        this.jsonMapper = jsonMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Resolve the owner before the response starts, so an unknown user is still a normal error response
+     */
+    public Long resolveOwnerId(String userEmail) {
+        return userIdentityCache.requireUserId(userEmail);
+    }
+
+    /**
+     * Write every mail of the owner except drafts and trash, newest first
+     *
+     * @param ownerId owner resolved with resolveOwnerId
+     * @param out response stream, not closed by this method
+     */
+    public void exportAllMail(Long ownerId, OutputStream out) throws IOException {
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<Mail> mails = mailRepository.streamAllMailByOwnerId(ownerId)) {
+                    int written = 0;
+                    for (Mail mail : (Iterable<Mail>) mails::iterator) {
+                        out.write(jsonMapper.writeValueAsBytes(toExportDto(mail)));
+                        out.write('\n');
+                        if (++written % FLUSH_EVERY == 0) {
+                            out.flush();
+                            // Drops the written mails and their contents, nothing to flush in a read-only transaction
+                            entityManager.clear();
+                        }
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Attachments are left out: they are downloaded separately through AttachmentController
+    private EmailViewDto toExportDto(Mail mail) {
+        return EmailViewDto.builder()
+                .id(mail.getMailId())
+                .sender(mail.getSender())
+                .receiver(mail.getReceiver())
+                .subject(mail.getSubject())
+                .body(mail.getBody())
+                .timestamp(mail.getTimestamp())
+                .priority(mail.getPriority())
+                .folderName(mail.getFolderName())
+                .isRead(mail.isRead())
+                .build();
+    }
+}
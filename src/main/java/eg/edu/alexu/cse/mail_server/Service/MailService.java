@@ -2,36 +2,63 @@ package eg.edu.alexu.cse.mail_server.Service;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentNameView;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentRepository;
+import eg.edu.alexu.cse.mail_server.Repository.FolderCountView;
+import eg.edu.alexu.cse.mail_server.Repository.MailHeaderView;
 import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
 import eg.edu.alexu.cse.mail_server.Service.command.DraftCommand;
 import eg.edu.alexu.cse.mail_server.Service.command.GetMailCommand;
 import eg.edu.alexu.cse.mail_server.Service.command.SendCommand;
-import eg.edu.alexu.cse.mail_server.dto.AttachmentDTO;
+import eg.edu.alexu.cse.mail_server.dto.BulkMailActionDTO;
+import eg.edu.alexu.cse.mail_server.dto.BulkSendProgressDto;
 import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
 import eg.edu.alexu.cse.mail_server.dto.EmailViewDto;
+import eg.edu.alexu.cse.mail_server.dto.FolderSummaryDto;
+import eg.edu.alexu.cse.mail_server.dto.MailHeaderDto;
+import eg.edu.alexu.cse.mail_server.dto.MailPageDto;
+import eg.edu.alexu.cse.mail_server.dto.SortedMailPageDto;
+import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 
 @Service
 @RequiredArgsConstructor
 public class MailService {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_BULK_IDS = 1000;
+
     private final SendCommand sendCommand;
     private final DraftCommand draftCommand;
     private final GetMailCommand getMailCommand;
     private final MailRepository mailRepository;
+    private final AttachmentRepository attachmentRepository;
+    private final FolderCounterService folderCounterService;
+    private final UserIdentityCache userIdentityCache;
+    private final MessageContentService messageContentService;
     private final AttachmentService attachmentService;
+    private final AttachmentBlobService attachmentBlobService;
+    private final OutboxService outboxService;
+    private final DraftWriteBuffer draftWriteBuffer;
     private final eg.edu.alexu.cse.mail_server.Repository.UserRepository userRepository;
 
     public void send(ComposeEmailDTO composeEmailDTO) {
+        flushDraftsOf(composeEmailDTO.getSender());
         sendCommand.execute(composeEmailDTO);
     }
 
@@ -42,102 +69,190 @@ public class MailService {
      * @throws IOException if file processing fails
      */
     public void sendWithAttachments(ComposeEmailDTO composeEmailDTO, List<MultipartFile> attachments) throws IOException {
+        flushDraftsOf(composeEmailDTO.getSender());
         sendCommand.executeWithAttachments(composeEmailDTO, attachments);
     }
 
+    /**
+     * Send to a large distribution list, delivered in chunks in the background
+     * @return id of the job, see getBulkSendProgress
+     */
+    public Long bulkSend(ComposeEmailDTO composeEmailDTO, List<MultipartFile> attachments) throws IOException {
+        flushDraftsOf(composeEmailDTO.getSender());
+        return sendCommand.executeBulk(composeEmailDTO, attachments);
+    }
+
+    public BulkSendProgressDto getBulkSendProgress(Long jobId, String userEmail) {
+        return outboxService.getProgress(jobId, userEmail);
+    }
+
     public Long draft(ComposeEmailDTO composeEmailDTO) {
         return draftCommand.execute(composeEmailDTO);
     }
 
     // Get inbox mails
-    public List<EmailViewDto> getInboxMails(String userEmail) {
-        Long userId = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"))
-                .getUserId();
-        List<Mail> mails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, "INBOX");
-        return mails.stream().map(this::convertToEmailViewDto).collect(Collectors.toList());
+    public MailPageDto getInboxMails(String userEmail, String cursor, Integer limit) {
+        return getMailPage(userEmail, MailFolders.INBOX, cursor, limit);
     }
 
     // Get sent mails
-    public List<EmailViewDto> getSentMails(String userEmail) {
-        Long userId = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"))
-                .getUserId();
-        List<Mail> mails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, "SENT");
-        return mails.stream().map(this::convertToEmailViewDto).collect(Collectors.toList());
+    public MailPageDto getSentMails(String userEmail, String cursor, Integer limit) {
+        return getMailPage(userEmail, MailFolders.SENT, cursor, limit);
     }
 
     // Get draft mails
-    public List<EmailViewDto> getDraftMails(String userEmail) {
-        Long userId = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"))
-                .getUserId();
-        List<Mail> mails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, "DRAFTS");
-        return mails.stream().map(this::convertToEmailViewDto).collect(Collectors.toList());
+    public MailPageDto getDraftMails(String userEmail, String cursor, Integer limit) {
+        return getMailPage(userEmail, MailFolders.DRAFTS, cursor, limit);
     }
 
     // Get trash mails
-    public List<EmailViewDto> getTrashMails(String userEmail) {
-        Long userId = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"))
-                .getUserId();
-        List<Mail> mails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, "trash");
-        return mails.stream().map(this::convertToEmailViewDto).collect(Collectors.toList());
+    public MailPageDto getTrashMails(String userEmail, String cursor, Integer limit) {
+        return getMailPage(userEmail, MailFolders.TRASH, cursor, limit);
     }
 
     // Get mails by folder
-    public List<EmailViewDto> getMailsByFolder(String userEmail, String folderName) {
-        Long userId = userRepository.findByEmail(userEmail)
-                .orElseThrow(() -> new RuntimeException("User not found"))
-                .getUserId();
-
-        List<Mail> mails;
-        if ("all".equalsIgnoreCase(folderName)) {
-            // All Mail shows only inbox and sent (excludes drafts and trash)
-            mails = mailRepository.findAllByOwnerIdExcludingDraftsAndTrash(userId);
+    public MailPageDto getMailsByFolder(String userEmail, String folderName, String cursor, Integer limit) {
+        return getMailPage(userEmail, folderName, cursor, limit);
+    }
+
+    /**
+     * Get one page of a folder, newest first
+     * Uses keyset pagination on (timestamp, mailId) so the cost of a page
+     * does not grow with the size of the folder
+     *
+     * @param userEmail owner of the folder
+     * @param folderName folder to list, "all" lists everything except drafts and trash
+     * @param cursor nextCursor of the previous page, null for the first page
+     * @param limit page size, defaults to DEFAULT_PAGE_SIZE and is capped at MAX_PAGE_SIZE
+     * @return the page and the cursor of the next one
+     */
+    public MailPageDto getMailPage(String userEmail, String folderName, String cursor, Integer limit) {
+        Long userId = userIdentityCache.requireUserId(userEmail);
+        flushBufferedDrafts(userId, folderName);
+
+        int pageSize = resolvePageSize(limit);
+        // Fetch one extra row to know whether another page exists
+        Pageable pageable = PageRequest.of(0, pageSize + 1);
+        boolean allMail = MailFolders.isAll(folderName);
+        String storedFolder = MailFolders.normalize(folderName);
+
+        List<MailHeaderView> mails;
+        if (cursor == null || cursor.isEmpty()) {
+            mails = allMail
+                    ? mailRepository.findAllMailPage(userId, pageable)
+                    : mailRepository.findFolderPage(userId, storedFolder, pageable);
         } else {
-            // Use ownerId to load mails for the given folder (including "trash")
-            mails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, folderName);
+            MailCursor position = MailCursor.decode(cursor);
+            mails = allMail
+                    ? mailRepository.findAllMailPageAfter(userId, position.timestamp(), position.mailId(), pageable)
+                    : mailRepository.findFolderPageAfter(userId, storedFolder, position.timestamp(), position.mailId(), pageable);
+        }
+
+        boolean hasMore = mails.size() > pageSize;
+        if (hasMore) {
+            mails = mails.subList(0, pageSize);
+        }
+        String nextCursor = hasMore ? MailCursor.after(mails.get(mails.size() - 1)).encode() : null;
+
+        return MailPageDto.builder()
+                .mails(toHeaderDtos(mails))
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .build();
+    }
+
+    /**
+     * ETag of one page of a folder listing
+     * Built from the folder version so it can be checked without querying the mails,
+     * cursor and limit are part of it because each page is a different representation
+     */
+    public String getFolderPageETag(String userEmail, String folderName, String cursor, Integer limit) {
+        Long userId = userIdentityCache.requireUserId(userEmail);
+        // Buffered draft edits bump the folder version when written, so write them first
+        flushBufferedDrafts(userId, folderName);
+        long version = folderCounterService.getVersion(userId, folderName);
+        int page = Objects.hash(MailFolders.isAll(folderName) ? MailFolders.ALL : MailFolders.normalize(folderName),
+                cursor, resolvePageSize(limit));
+        return "\"" + version + "-" + Integer.toHexString(page) + "\"";
+    }
+
+    // Listing the drafts folder must show buffered draft edits
+    private void flushBufferedDrafts(Long userId, String folderName) {
+        if (!MailFolders.isAll(folderName) && MailFolders.DRAFTS.equals(MailFolders.normalize(folderName))) {
+            draftWriteBuffer.flushOwner(userId);
+        }
+    }
+
+    // The sender's drafts are written before a send, the client usually deletes the sent draft next
+    private void flushDraftsOf(String senderEmail) {
+        userIdentityCache.find(senderEmail).ifPresent(sender -> draftWriteBuffer.flushOwner(sender.userId()));
+    }
+
+    private int resolvePageSize(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
         }
-        return mails.stream().map(this::convertToEmailViewDto).collect(Collectors.toList());
+        return Math.min(limit, MAX_PAGE_SIZE);
     }
 
-    // Get mail by ID
+    // Get mail by ID with its content, a buffered draft edit is written first
     public Mail getMailById(Long mailId) {
-        return mailRepository.findById(mailId)
+        draftWriteBuffer.flush(mailId);
+        return mailRepository.findWithContentByMailId(mailId)
                 .orElseThrow(() -> new RuntimeException("Mail not found with id: " + mailId));
     }
 
     // Mark as read
+    @Transactional
     public void markAsRead(Long mailId) {
         Mail mail = getMailById(mailId);
+        if (!mail.isRead()) {
+            folderCounterService.readChanged(mail.getOwnerId(), mail.getFolderName(), true);
+        }
         mail.setRead(true);
         mailRepository.save(mail);
     }
 
+    @Transactional
     public void markAsUnread(Long mailId) {
         Mail mail = getMailById(mailId);
+        if (mail.isRead()) {
+            folderCounterService.readChanged(mail.getOwnerId(), mail.getFolderName(), false);
+        }
         mail.setRead(false);
         mailRepository.save(mail);
     }
 
     // Delete mail (soft delete - move to trash)
     // Note: This requires userId parameter for ownership verification
+    @Transactional
     public void deleteMail(Long mailId, Long userId) {
+        // A buffered edit is only written while the mail is in DRAFTS
+        draftWriteBuffer.flush(mailId);
         Mail mail = mailRepository.findByMailIdAndOwnerId(mailId, userId);
         if (mail == null) {
             throw new IllegalArgumentException("Mail not found or you don't have permission to delete it");
         }
-        mail.setFolderName("trash");
-        mail.setDeletedAt(java.time.LocalDateTime.now()); // Track when moved to trash
-        mailRepository.save(mail);
+        moveToTrash(mail);
     }
 
     // Overload for backward compatibility (when userId is not available)
+    @Transactional
     public void deleteMail(Long mailId) {
         Mail mail = getMailById(mailId);
-        mail.setFolderName("trash");
-        mail.setDeletedAt(java.time.LocalDateTime.now());
+        moveToTrash(mail);
+    }
+
+    private void moveToTrash(Mail mail) {
+        if (!MailFolders.TRASH.equals(mail.getFolderName())) {
+            folderCounterService.mailRemoved(mail.getOwnerId(), mail.getFolderName(), mail.isRead());
+            folderCounterService.mailAdded(mail.getOwnerId(), MailFolders.TRASH, mail.isRead());
+        }
+        mail.setFolderName(MailFolders.TRASH);
+        mail.setDeletedAt(java.time.LocalDateTime.now()); // Track when moved to trash
         mailRepository.save(mail);
     }
 
@@ -146,8 +261,11 @@ public class MailService {
      * This completely removes the email and cannot be undone
      * @param mailId ID of the email to permanently delete
      */
+    @Transactional
     public void permanentDeleteMail(Long mailId) {
         Mail mail = getMailById(mailId);
+        folderCounterService.mailRemoved(mail.getOwnerId(), mail.getFolderName(), mail.isRead());
+        attachmentBlobService.releaseForMails(List.of(mail.getMailId()));
         mailRepository.delete(mail);
     }
 
@@ -160,23 +278,111 @@ public class MailService {
      * - .minusDays(7) for 7 days
      * - .minusDays(30) for 30 days
      */
+    @Transactional
     public void deleteOldTrashEmails() {
         java.time.LocalDateTime oneMinuteAgo = java.time.LocalDateTime.now().minusMinutes(1);
-        List<Mail> oldTrashMails = mailRepository.findByFolderNameAndDeletedAtBefore("trash", oneMinuteAgo);
+        List<Mail> oldTrashMails = mailRepository.findByFolderNameAndDeletedAtBefore(MailFolders.TRASH, oneMinuteAgo);
 
         if (!oldTrashMails.isEmpty()) {
+            folderCounterService.mailsRemoved(oldTrashMails);
+            attachmentBlobService.releaseForMails(oldTrashMails.stream().map(Mail::getMailId).toList());
             mailRepository.deleteAll(oldTrashMails);
             System.out.println("Auto-deleted " + oldTrashMails.size() + " emails from trash (older than 1 minute)");
         }
     }
 
+    // ==================== BULK OPERATIONS ====================
+    // Each operation is one set-based statement scoped by owner, ids the user
+    // does not own are ignored. Counter deltas are read per folder beforehand.
+
+    @Transactional
+    public int bulkMarkRead(BulkMailActionDTO request, boolean read) {
+        Long ownerId = userIdentityCache.requireUserId(request.getUserEmail());
+        List<Long> mailIds = bulkIds(request);
+        for (FolderCountView change : mailRepository.countReadFlagChanges(ownerId, mailIds, read)) {
+            folderCounterService.readChanged(ownerId, change.getFolderName(), read, change.getTotalCount());
+        }
+        return mailRepository.updateReadFlag(ownerId, mailIds, read);
+    }
+
+    /**
+     * Move mails to a folder, moving to TRASH stamps deletedAt like deleteMail
+     */
+    @Transactional
+    public int bulkMove(BulkMailActionDTO request) {
+        if (request.getFolderName() == null || request.getFolderName().trim().isEmpty()) {
+            throw new IllegalArgumentException("Folder name cannot be empty");
+        }
+        String folderName = MailFolders.normalize(request.getFolderName());
+        if (MailFolders.isAll(folderName)) {
+            throw new IllegalArgumentException("Cannot move mails to " + folderName);
+        }
+        return bulkMoveTo(request, folderName);
+    }
+
+    @Transactional
+    public int bulkTrash(BulkMailActionDTO request) {
+        return bulkMoveTo(request, MailFolders.TRASH);
+    }
+
+    private int bulkMoveTo(BulkMailActionDTO request, String folderName) {
+        Long ownerId = userIdentityCache.requireUserId(request.getUserEmail());
+        List<Long> mailIds = bulkIds(request);
+        long moved = 0;
+        long movedUnread = 0;
+        for (FolderCountView source : mailRepository.countOutsideFolder(ownerId, mailIds, folderName)) {
+            folderCounterService.mailsRemoved(ownerId, source.getFolderName(), source.getTotalCount(), source.getUnreadCount());
+            moved += source.getTotalCount();
+            movedUnread += source.getUnreadCount();
+        }
+        if (moved > 0) {
+            folderCounterService.mailsAdded(ownerId, folderName, moved, movedUnread);
+        }
+        java.time.LocalDateTime deletedAt = MailFolders.TRASH.equals(folderName) ? java.time.LocalDateTime.now() : null;
+        return mailRepository.moveToFolder(ownerId, mailIds, folderName, deletedAt);
+    }
+
+    /**
+     * Hard delete, attachment rows and receiver links go first since bulk deletes do not cascade
+     */
+    @Transactional
+    public int bulkPermanentDelete(BulkMailActionDTO request) {
+        Long ownerId = userIdentityCache.requireUserId(request.getUserEmail());
+        List<Long> mailIds = mailRepository.findOwnedIds(ownerId, bulkIds(request));
+        if (mailIds.isEmpty()) {
+            return 0;
+        }
+        for (FolderCountView folder : mailRepository.countOwned(ownerId, mailIds)) {
+            folderCounterService.mailsRemoved(ownerId, folder.getFolderName(), folder.getTotalCount(), folder.getUnreadCount());
+        }
+        attachmentBlobService.releaseForMails(mailIds);
+        attachmentRepository.deleteByOwnedMailIds(ownerId, mailIds);
+        mailRepository.deleteReceiverLinks(ownerId, mailIds);
+        return mailRepository.deleteOwned(ownerId, mailIds);
+    }
+
+    private List<Long> bulkIds(BulkMailActionDTO request) {
+        if (request.getMailIds() == null || request.getMailIds().isEmpty()) {
+            throw new IllegalArgumentException("No mail ids given");
+        }
+        List<Long> mailIds = request.getMailIds().stream().filter(Objects::nonNull).distinct().toList();
+        if (mailIds.size() > MAX_BULK_IDS) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_IDS + " mails can be changed at once");
+        }
+        // Buffered draft edits are written before the mails are changed
+        draftWriteBuffer.flushAll(mailIds);
+        return mailIds;
+    }
+
     /**
      * Copy an email to a custom folder
      * Creates a duplicate of the email with the specified folder name
      * @param mailId ID of the email to copy
      * @param folderName Name of the target folder
+     * @throws IOException if a legacy attachment file cannot be read
      */
-    public void copyEmailToFolder(Long mailId, String folderName) {
+    @Transactional
+    public void copyEmailToFolder(Long mailId, String folderName) throws IOException {
         // Get original email
         Mail originalMail = getMailById(mailId);
 
@@ -192,10 +398,11 @@ public class MailService {
                 .senderRel(originalMail.getSenderRel()) // Same user reference (not a collection)
                 .receiver(originalMail.getReceiver())
                 .subject(originalMail.getSubject())
-                .body(originalMail.getBody())
+                .content(messageContentService.contentOf(originalMail)) // Shared, the body is not copied
+                .snippet(originalMail.getSnippet())
                 .priority(originalMail.getPriority())
                 .timestamp(java.time.LocalDateTime.now()) // New timestamp for the copy
-                .folderName(folderName.toUpperCase()) // Store folder name in uppercase
+                .folderName(MailFolders.normalize(folderName)) // Store folder name normalized
                 .isRead(originalMail.isRead())
                 .owner(originalMail.getOwner()) // Preserve owner
                 .build();
@@ -205,12 +412,16 @@ public class MailService {
             copiedMail.setReceiverRel(new ArrayList<>(originalMail.getReceiverRel()));
         }
 
-        if (originalMail.getAttachments() != null) {
-            copiedMail.setAttachments(new ArrayList<>(originalMail.getAttachments()));
-        }
-
         // Save the mail
         mailRepository.save(copiedMail);
+
+        // New attachment rows sharing the original files (reusing the original rows would move them to the copy)
+        if (originalMail.getAttachments() != null) {
+            for (Attachment attachment : originalMail.getAttachments()) {
+                attachmentService.copyAttachment(attachment, copiedMail);
+            }
+        }
+        folderCounterService.mailAdded(originalMail.getOwnerId(), copiedMail.getFolderName(), copiedMail.isRead());
     }
 
     /**
@@ -222,170 +433,148 @@ public class MailService {
      */
     
     public EmailViewDto getMailWithAttachments(Long mailId) throws IOException {
-        return getMailCommand.execute(mailId);
+        return getMailWithAttachments(mailId, false);
     }
 
     /**
-     * Convert Mail entity to EmailViewDto with FULL attachment data (Base64 encoded)
-     * Loads all attachment files and encodes them for frontend
+     * Get mail with its attachments
+     *
+     * @param mailId the ID of the mail
+     * @param byReference attachments carry a download URL, only files under the inline threshold carry data
+     * @return EmailViewDto with its attachments
+     * @throws IOException if file reading fails
      */
-    private EmailViewDto convertToEmailViewDto(Mail mail) {
-        // Load full attachment data with Base64 encoding
-        List<AttachmentDTO> attachmentDTOs = null;
-        if (mail.getAttachments() != null && !mail.getAttachments().isEmpty()) {
-            attachmentDTOs = new ArrayList<>();
-            for (Attachment attachment : mail.getAttachments()) {
-                try {
-                    // Read file from disk
-                    byte[] fileData = attachmentService.readAttachmentFile(attachment.getFilePath());
-
-                    // Encode to Base64
-                    String base64Data = Base64.getEncoder().encodeToString(fileData);
-
-                    // Create DTO with full data
-                    AttachmentDTO dto = AttachmentDTO.builder()
-                            .id(attachment.getId())
-                            .fileName(attachment.getFileName())
-                            .contentType(attachment.getContentType())
-                            .fileSize(attachment.getFileSize())
-                            .fileData(base64Data)
-                            .build();
-
-                    attachmentDTOs.add(dto);
-                } catch (IOException e) {
-                    // Log error but continue with other attachments
-                    System.err.println("Failed to load attachment " + attachment.getId() + ": " + e.getMessage());
-                }
-            }
+    public EmailViewDto getMailWithAttachments(Long mailId, boolean byReference) throws IOException {
+        draftWriteBuffer.flush(mailId);
+        return getMailCommand.execute(mailId, byReference);
+    }
+
+    /**
+     * Convert header projections to DTOs
+     * Attachment names for the whole page are loaded in one query, files are never read
+     */
+    private List<MailHeaderDto> toHeaderDtos(List<MailHeaderView> headers) {
+        if (headers.isEmpty()) {
+            return new ArrayList<>();
         }
 
-        return EmailViewDto.builder()
-                .id(mail.getMailId())
-                .sender(mail.getSender())
-                .receiver(mail.getReceiver())
-                .subject(mail.getSubject())
-                .body(mail.getBody())
-                .timestamp(mail.getTimestamp())
-                .priority(mail.getPriority())
-                .folderName(mail.getFolderName())
-                .isRead(mail.isRead())
-                .attachments(attachmentDTOs)           // Full attachment data with Base64
-                .build();
+        List<Long> mailIds = headers.stream().map(MailHeaderView::getMailId).collect(Collectors.toList());
+        Map<Long, List<String>> attachmentNames = attachmentRepository.findNamesByMailIds(mailIds).stream()
+                .collect(Collectors.groupingBy(AttachmentNameView::getMailId,
+                        Collectors.mapping(AttachmentNameView::getFileName, Collectors.toList())));
+
+        List<MailHeaderDto> dtos = new ArrayList<>(headers.size());
+        for (MailHeaderView header : headers) {
+            List<String> names = attachmentNames.getOrDefault(header.getMailId(), new ArrayList<>());
+            dtos.add(MailHeaderDto.builder()
+                    .id(header.getMailId())
+                    .sender(header.getSender())
+                    .receiver(header.getReceiver())
+                    .subject(header.getSubject())
+                    .snippet(header.getSnippet())
+                    .timestamp(header.getTimestamp())
+                    .priority(header.getPriority())
+                    .isRead(header.getIsRead())
+                    .folderName(header.getFolderName())
+                    .attachmentCount(names.size())
+                    .attachmentNames(names)
+                    .build());
+        }
+        return dtos;
     }
 
-    public List<Mail> getSortedMails(String email, String critera, boolean order){
+    /**
+     * Legacy sorted inbox, now one page sorted by the database
+     * order keeps its old meaning: ascending, except for priority where true shows high priority first
+     */
+    public List<Mail> getSortedMails(String email, String criteria, boolean order, Integer page, Integer limit) {
+        Long userId = userIdentityCache.requireUserId(email);
+        boolean ascending = "priority".equals(criteria) ? !order : order;
+        Pageable pageable = PageRequest.of(resolvePage(page), resolvePageSize(limit), sortFor(criteria, ascending));
+        return mailRepository.findByOwnerIdAndFolderName(userId, MailFolders.INBOX, pageable);
+    }
 
-        List<Mail> mailList = mailRepository.findByReceiverAndFolderNameOrderBySenderAsc(email, "INBOX");
-        
-        switch(critera){
+    /**
+     * Get one page of a folder sorted by sender, subject, date or priority
+     * The database sorts and limits (see the idx_mail_owner_folder_* indexes),
+     * so a page costs O(page size) instead of sorting the whole folder in memory
+     *
+     * @param userEmail owner of the folder
+     * @param folderName folder to list, "all" lists everything except drafts and trash
+     * @param sortBy sender, subject, date or priority
+     * @param ascending sort direction of the sortBy key
+     * @param page page number, starting at 0
+     * @param limit page size, defaults to DEFAULT_PAGE_SIZE and is capped at MAX_PAGE_SIZE
+     */
+    public SortedMailPageDto getSortedPage(String userEmail, String folderName, String sortBy, boolean ascending,
+                                           Integer page, Integer limit) {
+        Long userId = userIdentityCache.requireUserId(userEmail);
+        flushBufferedDrafts(userId, folderName);
+
+        int pageNumber = resolvePage(page);
+        int pageSize = resolvePageSize(limit);
+        // A Slice fetches one extra row to know whether another page exists, without a count query
+        Pageable pageable = PageRequest.of(pageNumber, pageSize, sortFor(sortBy, ascending));
+
+        Slice<MailHeaderView> mails = MailFolders.isAll(folderName)
+                ? mailRepository.findAllMailSorted(userId, pageable)
+                : mailRepository.findFolderSorted(userId, MailFolders.normalize(folderName), pageable);
+
+        return SortedMailPageDto.builder()
+                .mails(toHeaderDtos(mails.getContent()))
+                .sortBy(sortBy)
+                .ascending(ascending)
+                .page(pageNumber)
+                .size(pageSize)
+                .hasMore(mails.hasNext())
+                .build();
+    }
+
+    /**
+     * Sort of a sorted view, ties are broken by newest first and then by mailId
+     * so that pages are stable
+     */
+    private Sort sortFor(String sortBy, boolean ascending) {
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        if (sortBy == null) {
+            throw new IllegalArgumentException("Sort criteria is required");
+        }
+        switch (sortBy) {
             case "sender":
-                if(order){
-                   PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                            ((a, b) -> a.getSender().toLowerCase().compareTo(b.getSender().toLowerCase()))
-                   );
-                   mailQueue.addAll(mailList);
-                   mailList.clear();
-                   while (!mailQueue.isEmpty())
-                        mailList.add(mailQueue.poll());
-                    return mailList;
-                   //return mailRepository.findByReceiverAndFolderNameOrderBySenderAsc(email, "INBOX"); 
-                }
-                else{
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                                ((a, b) -> b.getSender().toLowerCase().compareTo(a.getSender().toLowerCase()))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderBySenderDesc(email, "INBOX");
-                }
-                     
-                
             case "subject":
-                if(order){
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                            ((a, b) -> a.getSubject().toLowerCase().compareTo(b.getSubject().toLowerCase()))
-                   );
-                   mailQueue.addAll(mailList);
-                   mailList.clear();
-                   while (!mailQueue.isEmpty())
-                        mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderBySubjectAsc(email, "INBOX");
-                }
- 
-                else{
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                                ((a, b) -> b.getSubject().toLowerCase().compareTo(a.getSubject().toLowerCase()))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderBySubjectDesc(email, "INBOX"); 
-                }
-                    
-
-            case "date":
-                if(order){
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                            ((a, b) -> a.getTimestamp().compareTo(b.getTimestamp()))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                        return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderByTimestampAsc(email, "INBOX");
-                }
-                else{
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                                ((a, b) -> b.getTimestamp().compareTo(a.getTimestamp()))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderByTimestampDesc(email, "INBOX"); 
-                }
-
             case "priority":
-                if(order){
-                    // Priority Mode ON: Show HIGH priority (5) first, then lower priorities
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                                ((a, b) -> Integer.valueOf(b.getPriority()).compareTo(Integer.valueOf(a.getPriority())))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderByPriorityDesc(email, "INBOX");
-                }
-                   
-                else{
-                    // Priority Mode OFF: Show LOW priority (1) first
-                    PriorityQueue<Mail> mailQueue = new PriorityQueue<Mail>(mailList.size(), 
-                            ((a, b) -> Integer.valueOf(a.getPriority()).compareTo(Integer.valueOf(b.getPriority())))
-                    );
-                    mailQueue.addAll(mailList);
-                    mailList.clear();
-                    while (!mailQueue.isEmpty())
-                            mailList.add(mailQueue.poll());
-                    return mailList;
-                    //return mailRepository.findByReceiverAndFolderNameOrderByPriorityAsc(email, "INBOX");
-                }
-                    
-
+                return Sort.by(new Sort.Order(direction, sortBy),
+                        Sort.Order.desc("timestamp"),
+                        Sort.Order.desc("mailId"));
+            case "date":
+                return Sort.by(new Sort.Order(direction, "timestamp"),
+                        new Sort.Order(direction, "mailId"));
             default:
-                return mailRepository.findByReceiver(email);
+                throw new IllegalArgumentException("Unknown sort criteria: " + sortBy);
         }
     }
 
+    private int resolvePage(Integer page) {
+        if (page == null) {
+            return 0;
+        }
+        if (page < 0) {
+            throw new IllegalArgumentException("Page number cannot be negative");
+        }
+        return page;
+    }
+
+    // ==================== MAILBOX SUMMARY ====================
+
+    /**
+     * Unread and total counts of every folder of a user
+     * Read from the materialized folder counters, no mail rows are scanned
+     */
+    public List<FolderSummaryDto> getMailboxSummary(String userEmail) {
+        Long userId = userIdentityCache.requireUserId(userEmail);
+        return folderCounterService.getSummary(userId);
+    }
+
     // ==================== CUSTOM FOLDERS MANAGEMENT ====================
 
     public List<String> getUserFolders(String userEmail) {
@@ -410,6 +599,7 @@ public class MailService {
         userRepository.save(user);
     }
 
+    @Transactional
     public void deleteUserFolder(String userEmail, String folderName) {
         eg.edu.alexu.cse.mail_server.Entity.User user = userRepository.findByEmail(userEmail)
                 .orElseThrow(() -> new RuntimeException("User not found: " + userEmail));
@@ -421,12 +611,17 @@ public class MailService {
         
         // Delete all emails in this folder
         Long userId = user.getUserId();
-        List<Mail> folderMails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, folderName);
+        draftWriteBuffer.flushOwner(userId);
+        String storedFolder = MailFolders.normalize(folderName);
+        List<Mail> folderMails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, storedFolder);
         if (!folderMails.isEmpty()) {
+            attachmentBlobService.releaseForMails(folderMails.stream().map(Mail::getMailId).toList());
             mailRepository.deleteAll(folderMails);
         }
+        folderCounterService.folderDeleted(userId, storedFolder);
     }
 
+    @Transactional
     public void renameUserFolder(String userEmail, String oldName, String newName) {
         eg.edu.alexu.cse.mail_server.Entity.User user = userRepository.findByEmail(userEmail)
                 .orElseThrow(() -> new RuntimeException("User not found: " + userEmail));
@@ -446,13 +641,17 @@ public class MailService {
         
         // Update all emails in this folder
         Long userId = user.getUserId();
-        List<Mail> folderMails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, oldName);
+        draftWriteBuffer.flushOwner(userId);
+        String storedOldName = MailFolders.normalize(oldName);
+        String storedNewName = MailFolders.normalize(newName);
+        List<Mail> folderMails = mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(userId, storedOldName);
         for (Mail mail : folderMails) {
-            mail.setFolderName(newName);
+            mail.setFolderName(storedNewName);
         }
         if (!folderMails.isEmpty()) {
             mailRepository.saveAll(folderMails);
         }
+        folderCounterService.folderRenamed(userId, storedOldName, storedNewName);
     }
 
     // ==================== UPDATE DRAFT ====================
@@ -463,21 +662,27 @@ public class MailService {
      * @param dto Updated email data
      */
     public void updateDraft(Long draftId, ComposeEmailDTO dto) {
-        Mail existingDraft = getMailById(draftId);
-        
-        // Verify it's actually a draft
-        if (!"DRAFTS".equalsIgnoreCase(existingDraft.getFolderName())) {
-            throw new IllegalArgumentException("Email is not a draft");
+        Long ownerId = draftWriteBuffer.pendingOwner(draftId);
+        if (ownerId == null) {
+            // First edit since the last flush: check the mail once, later edits only replace the buffered version
+            Mail existingDraft = getMailById(draftId);
+
+            // Verify it's actually a draft
+            if (!MailFolders.DRAFTS.equals(existingDraft.getFolderName())) {
+                throw new IllegalArgumentException("Email is not a draft");
+            }
+            ownerId = existingDraft.getOwnerId();
         }
-        
-        // Update draft fields
-        existingDraft.setReceiver(String.join(", ", dto.getReceivers()));
-        existingDraft.setSubject(dto.getSubject());
-        existingDraft.setBody(dto.getBody());
-        existingDraft.setPriority(dto.getPriority());
-        existingDraft.setTimestamp(java.time.LocalDateTime.now());
-        
-        mailRepository.save(existingDraft);
+
+        // Written by DraftWriteBuffer within a couple of seconds, or sooner if the draft is read
+        draftWriteBuffer.buffer(new DraftWriteBuffer.PendingDraft(
+                draftId,
+                ownerId,
+                String.join(", ", dto.getReceivers()),
+                dto.getSubject(),
+                dto.getBody(),
+                dto.getPriority(),
+                java.time.LocalDateTime.now()));
     }
 
 }
@@ -0,0 +1,78 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+
+/**
+ * One-off job that moves bodies stored on each Mail row into shared MessageContent rows
+ * Copies with the same subject and body (sent copy, inbox copies, folder copies)
+ * end up pointing to a single content row, and the legacy body column is cleared
+ * Runs in small batches like SnippetBackfillService
+ */
+@Service
+public class MessageContentMigrationService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final MailRepository mailRepository;
+    private final MessageContentService messageContentService;
+    private final TransactionTemplate transactionTemplate;
+
+    public MessageContentMigrationService(MailRepository mailRepository, MessageContentService messageContentService,
+                                          PlatformTransactionManager transactionManager) {
+        this.mailRepository = mailRepository;
+        this.messageContentService = messageContentService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(2)
+    public void migrateBodies() {
+        long lastId = 0L;
+        int migrated = 0;
+        while (true) {
+            final long afterId = lastId;
+            List<Long> migratedIds = transactionTemplate.execute(status -> migrateBatch(afterId));
+            if (migratedIds == null || migratedIds.isEmpty()) {
+                break;
+            }
+            migrated += migratedIds.size();
+            lastId = migratedIds.get(migratedIds.size() - 1);
+        }
+        if (migrated > 0) {
+            System.out.println("Moved the body of " + migrated + " mails to shared message content");
+        }
+    }
+
+    /**
+     * Migrate one batch, changes are flushed by dirty checking on commit
+     * @return ids of the mails migrated in this batch, in ascending order
+     */
+    private List<Long> migrateBatch(long afterId) {
+        List<Mail> mails = mailRepository.findByContentIsNullAndMailIdGreaterThanOrderByMailIdAsc(
+                afterId, PageRequest.of(0, BATCH_SIZE));
+        // Copies of a message usually sit next to each other, resolve each one only once
+        Map<String, MessageContent> contents = new HashMap<>();
+        for (Mail mail : mails) {
+            String hash = MessageContent.hashOf(mail.getSubject(), mail.getBody());
+            MessageContent content = contents.computeIfAbsent(hash,
+                    h -> messageContentService.resolve(mail.getSubject(), mail.getBody()));
+            mail.setContent(content);
+            mail.setLegacyBody(null);
+        }
+        return mails.stream().map(Mail::getMailId).toList();
+    }
+}
@@ -0,0 +1,58 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import eg.edu.alexu.cse.mail_server.Repository.MessageContentRepository;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Finds or stores the shared subject and body of a message
+ * A send to N receivers stores its body once instead of N + 1 times
+ */
+@Service
+@RequiredArgsConstructor
+public class MessageContentService {
+    private final MessageContentRepository messageContentRepository;
+
+    /**
+     * Content row for this subject and body, reusing an identical one when it exists
+     * A reused row is share-locked until the caller commits, see deleteOrphanedContent
+     */
+    @Transactional
+    public MessageContent resolve(String subject, String body) {
+        String hash = MessageContent.hashOf(subject, body);
+        return messageContentRepository.findFirstByContentHashOrderByIdAsc(hash)
+                .orElseGet(() -> messageContentRepository.save(MessageContent.builder()
+                        .contentHash(hash)
+                        .subject(subject)
+                        .body(body)
+                        .build()));
+    }
+
+    /**
+     * Content of an existing mail, for mails not migrated yet it is created from the legacy body
+     */
+    @Transactional
+    public MessageContent contentOf(Mail mail) {
+        return mail.getContent() != null ? mail.getContent() : resolve(mail.getSubject(), mail.getBody());
+    }
+
+    /**
+     * Remove content rows no mail points to
+     * Runs hourly rather than on every delete, orphans are only wasted space
+     * A row resolve() is reusing is locked by the sending transaction, the delete waits
+     * for it and then sees the new mail pointing to the row
+     */
+    @Scheduled(fixedRate = 3600000)
+    @Transactional
+    public void deleteOrphanedContent() {
+        int deleted = messageContentRepository.deleteOrphans();
+        if (deleted > 0) {
+            System.out.println("Deleted " + deleted + " unused message contents");
+        }
+    }
+}
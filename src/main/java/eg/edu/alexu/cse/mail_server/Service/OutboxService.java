@@ -0,0 +1,342 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MailOutbox;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentBlobRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailBatchRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxReceiverRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxRepository;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache.UserIdentity;
+import eg.edu.alexu.cse.mail_server.dto.BulkSendProgressDto;
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Transactional outbox for inbox delivery
+ * Sending only writes the sent copy and an outbox entry, OutboxWorker then
+ * delivers the inbox copies in batches, each batch in its own transaction
+ * together with the entry's progress, so a crash or retry never delivers twice
+ * A claim is a lease held by one instance and renewed by every batch. Only claims left
+ * unrenewed for CLAIM_LEASE are taken back, and the entry's version makes the batch of a
+ * worker that lost its claim fail instead of committing next to the new owner's
+ * Bulk sends to large distribution lists use the same path: each batch is one chunk
+ * Receivers are stored one per row (MailOutboxReceiver), a batch reads only its own
+ */
+@Service
+@RequiredArgsConstructor
+public class OutboxService {
+
+    // Receivers delivered per transaction
+    static final int DELIVERY_BATCH_SIZE = 200;
+    static final int MAX_ATTEMPTS = 10;
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(10);
+    // Far longer than one batch takes, so only the claims of dead instances expire
+    static final Duration CLAIM_LEASE = Duration.ofMinutes(5);
+    // Skipped receivers listed in the progress of a bulk send, the count covers all of them
+    static final int MAX_SKIPPED_LISTED = 100;
+
+    /**
+     * Attachment added to every inbox copy
+     * The blob references for all receivers are taken when the mail is sent
+     */
+    public record OutboxAttachment(Long blobId, String fileName, String contentType, Long fileSize,
+                                   String indexedContent) {
+    }
+
+    /**
+     * Published when an entry is written, the worker picks it up once the send commits
+     */
+    public record Enqueued(Long outboxId) {
+    }
+
+    /**
+     * Outcome of one delivery batch
+     * @param done all receivers are delivered
+     * @param createdAt when the mail was sent
+     * @param receivers receivers in the batch
+     */
+    public record BatchResult(boolean done, LocalDateTime createdAt, int receivers) {
+    }
+
+    /**
+     * The entry is no longer claimed by the calling worker, its claim expired and it was taken over
+     */
+    public static class ClaimLostException extends RuntimeException {
+        public ClaimLostException(Long outboxId) {
+            super("Outbox entry " + outboxId + " is claimed by another worker");
+        }
+    }
+
+    private static final TypeReference<List<OutboxAttachment>> ATTACHMENT_LIST = new TypeReference<>() {
+    };
+
+    private final MailOutboxRepository mailOutboxRepository;
+    private final MailOutboxReceiverRepository mailOutboxReceiverRepository;
+    private final MailBatchRepository mailBatchRepository;
+    private final UserRepository userRepository;
+    private final AttachmentBlobRepository attachmentBlobRepository;
+    private final AttachmentBlobService attachmentBlobService;
+    private final FolderCounterService folderCounterService;
+    private final UserIdentityCache userIdentityCache;
+    private final JsonMapper jsonMapper;
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Queue the inbox delivery of a sent mail, joins the caller's transaction
+     *
+     * @param sentCopy the saved sent copy, its content, snippet and priority are used for the inbox copies
+     * @param receivers receiver emails without duplicates, validated unless this is a bulk send
+     *                  (receivers without an account are then skipped when their batch is delivered)
+     * @param attachments attachments of every inbox copy, may be empty
+     * @return the entry, null when there is nobody to deliver to
+     */
+    @Transactional
+    public MailOutbox enqueue(Mail sentCopy, Collection<String> receivers, List<OutboxAttachment> attachments) {
+        if (receivers.isEmpty()) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<String> receiverList = List.copyOf(receivers);
+        MailOutbox outbox = mailOutboxRepository.save(MailOutbox.builder()
+                .sentMailId(sentCopy.getMailId())
+                .senderId(sentCopy.getSenderRel().getUserId())
+                .sender(sentCopy.getSender())
+                .content(sentCopy.getContent())
+                .snippet(sentCopy.getSnippet())
+                .priority(sentCopy.getPriority())
+                .receiverCount(receiverList.size())
+                .attachments(attachments.isEmpty() ? null : jsonMapper.writeValueAsString(attachments))
+                .nextAttemptAt(now)
+                .createdAt(sentCopy.getTimestamp() != null ? sentCopy.getTimestamp() : now)
+                .build());
+        mailBatchRepository.insertOutboxReceivers(outbox.getId(), receiverList);
+        eventPublisher.publishEvent(new Enqueued(outbox.getId()));
+        return outbox;
+    }
+
+    /**
+     * Claim a due entry for the workers of one instance
+     * Commits on its own: it is also called after the send's transaction completed,
+     * where joining that transaction would never commit the claim
+     * @param workerId id of the claiming instance
+     * @return false if another worker claimed it first
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public boolean claim(Long outboxId, String workerId) {
+        return mailOutboxRepository.claim(outboxId, workerId, LocalDateTime.now()) == 1;
+    }
+
+    /**
+     * Put entries whose claim expired back in the queue: their instance stopped without
+     * finishing them. Claims of live instances are renewed by every batch and are left alone
+     */
+    @Transactional
+    public int releaseExpiredClaims() {
+        return mailOutboxRepository.releaseExpiredClaims(LocalDateTime.now().minus(CLAIM_LEASE));
+    }
+
+    /**
+     * Deliver the next DELIVERY_BATCH_SIZE receivers of a claimed entry
+     * Inbox copies, attachment rows, counters and the entry's progress commit together,
+     * the claim is renewed with them
+     * @param workerId id of the instance holding the claim
+     * @throws ClaimLostException if the claim was taken over; a takeover while the batch runs
+     *         fails its commit with an optimistic locking failure instead
+     */
+    @Transactional
+    public BatchResult deliverNextBatch(Long outboxId, String workerId) {
+        MailOutbox outbox = mailOutboxRepository.findById(outboxId)
+                .orElseThrow(() -> new RuntimeException("Outbox entry not found: " + outboxId));
+        if (!isClaimedBy(outbox, workerId)) {
+            throw new ClaimLostException(outboxId);
+        }
+        int from = outbox.getDeliveredCount();
+        int to = Math.min(from + DELIVERY_BATCH_SIZE, outbox.getReceiverCount());
+        List<String> batch = mailOutboxReceiverRepository.findEmails(outboxId, from, to);
+
+        Map<String, UserIdentity> identities = userIdentityCache.findAll(batch);
+        User senderUser = userRepository.getReferenceById(outbox.getSenderId());
+        List<Mail> inboxCopies = new ArrayList<>(batch.size());
+        List<Long> ownerIds = new ArrayList<>(batch.size());
+        List<String> skipped = new ArrayList<>();
+        for (String receiverEmail : batch) {
+            UserIdentity receiver = identities.get(receiverEmail);
+            if (receiver == null) {
+                // Account removed since the mail was sent, or never existed (bulk send)
+                skipped.add(receiverEmail);
+                continue;
+            }
+            inboxCopies.add(Mail.builder()
+                    .sender(outbox.getSender())
+                    .senderRel(senderUser)
+                    .receiver(receiverEmail)
+                    .subject(outbox.getContent().getSubject())
+                    .content(outbox.getContent())
+                    .snippet(outbox.getSnippet())
+                    .priority(outbox.getPriority())
+                    .timestamp(outbox.getCreatedAt()) // Sorted by send time, not delivery time
+                    .folderName(MailFolders.INBOX)
+                    .isRead(false)
+                    .owner(userRepository.getReferenceById(receiver.userId()))  // Set owner as receiver for inbox copy
+                    .build());
+            ownerIds.add(receiver.userId());
+        }
+
+        if (!inboxCopies.isEmpty()) {
+            mailBatchRepository.insertMails(inboxCopies);
+            folderCounterService.mailAddedToAll(ownerIds, MailFolders.INBOX, false);
+        }
+
+        List<OutboxAttachment> attachments = attachmentList(outbox);
+        if (!attachments.isEmpty()) {
+            List<Attachment> rows = new ArrayList<>(inboxCopies.size() * attachments.size());
+            for (Mail inboxCopy : inboxCopies) {
+                for (OutboxAttachment attachment : attachments) {
+                    rows.add(Attachment.builder()
+                            .fileName(attachment.fileName())
+                            .storedFileName(AttachmentService.newStoredFileName(attachment.fileName()))
+                            .contentType(attachment.contentType())
+                            .fileSize(attachment.fileSize())
+                            .blob(attachmentBlobRepository.getReferenceById(attachment.blobId()))
+                            .indexedContent(attachment.indexedContent())
+                            .uploadDate(LocalDateTime.now())
+                            .mail(inboxCopy)
+                            .build());
+                }
+            }
+            mailBatchRepository.insertAttachments(rows);
+            // References taken for receivers that no longer exist
+            releaseReferences(attachments, batch.size() - inboxCopies.size());
+        }
+
+        if (!skipped.isEmpty()) {
+            outbox.setSkippedCount(outbox.getSkippedCount() + skipped.size());
+            mailOutboxReceiverRepository.markSkipped(outboxId, from, to, skipped);
+        }
+        outbox.setDeliveredCount(to);
+        outbox.setClaimedAt(LocalDateTime.now());
+        boolean done = to >= outbox.getReceiverCount();
+        if (done) {
+            outbox.setStatus(MailOutbox.Status.DELIVERED);
+            outbox.setDeliveredAt(LocalDateTime.now());
+            outbox.setClaimedBy(null);
+        }
+        return new BatchResult(done, outbox.getCreatedAt(), batch.size());
+    }
+
+    /**
+     * Progress of a bulk send (any outbox entry can be read this way)
+     * Entries are purged a day after delivery, their progress is gone with them
+     * Lists the first MAX_SKIPPED_LISTED skipped receivers, skipped counts all of them
+     *
+     * @param jobId the outbox entry returned when the bulk send was accepted
+     * @param senderEmail only the sender may read the progress
+     */
+    public BulkSendProgressDto getProgress(Long jobId, String senderEmail) {
+        MailOutbox outbox = mailOutboxRepository.findById(jobId)
+                .filter(entry -> entry.getSender().equalsIgnoreCase(senderEmail))
+                .orElseThrow(() -> new RuntimeException("Bulk send job not found: " + jobId));
+        int total = outbox.getReceiverCount();
+        int processed = outbox.getDeliveredCount();
+        return BulkSendProgressDto.builder()
+                .jobId(outbox.getId())
+                .status(outbox.getStatus().name())
+                .totalReceivers(total)
+                .processed(processed)
+                .delivered(processed - outbox.getSkippedCount())
+                .skipped(outbox.getSkippedCount())
+                .skippedReceivers(outbox.getSkippedCount() == 0 ? List.of()
+                        : mailOutboxReceiverRepository.findSkippedEmails(jobId, PageRequest.of(0, MAX_SKIPPED_LISTED)))
+                .chunkSize(DELIVERY_BATCH_SIZE)
+                .chunksDone((processed + DELIVERY_BATCH_SIZE - 1) / DELIVERY_BATCH_SIZE)
+                .totalChunks((total + DELIVERY_BATCH_SIZE - 1) / DELIVERY_BATCH_SIZE)
+                .attempts(outbox.getAttempts())
+                .lastError(outbox.getLastError())
+                .createdAt(outbox.getCreatedAt())
+                .finishedAt(outbox.getDeliveredAt())
+                .build();
+    }
+
+    /**
+     * Record a failed attempt: retry later with exponential backoff, or give up after MAX_ATTEMPTS
+     * @param workerId id of the instance holding the claim
+     * @return true if the entry was given up
+     * @throws ClaimLostException if the claim was taken over, the new owner handles the entry
+     */
+    @Transactional
+    public boolean recordFailure(Long outboxId, String workerId, String error) {
+        MailOutbox outbox = mailOutboxRepository.findById(outboxId)
+                .orElseThrow(() -> new RuntimeException("Outbox entry not found: " + outboxId));
+        if (!isClaimedBy(outbox, workerId)) {
+            throw new ClaimLostException(outboxId);
+        }
+        outbox.setClaimedBy(null);
+        outbox.setClaimedAt(null);
+        outbox.setAttempts(outbox.getAttempts() + 1);
+        outbox.setLastError(error == null ? null : error.substring(0, Math.min(error.length(), 1000)));
+
+        if (outbox.getAttempts() >= MAX_ATTEMPTS) {
+            outbox.setStatus(MailOutbox.Status.FAILED);
+            // Undelivered receivers will never get their attachment rows
+            releaseReferences(attachmentList(outbox), outbox.getReceiverCount() - outbox.getDeliveredCount());
+            return true;
+        }
+        // 2, 4, 8 ... seconds, capped at MAX_BACKOFF
+        long backoffSeconds = Math.min(1L << outbox.getAttempts(), MAX_BACKOFF.toSeconds());
+        outbox.setStatus(MailOutbox.Status.PENDING);
+        outbox.setNextAttemptAt(LocalDateTime.now().plusSeconds(backoffSeconds));
+        return false;
+    }
+
+    /**
+     * Remove entries delivered more than a day ago
+     */
+    @Scheduled(fixedRate = 3600000)
+    @Transactional
+    public void purgeDelivered() {
+        LocalDateTime before = LocalDateTime.now().minusDays(1);
+        mailOutboxReceiverRepository.deleteOfDeliveredBefore(before);
+        mailOutboxRepository.deleteDeliveredBefore(before);
+    }
+
+    private static boolean isClaimedBy(MailOutbox outbox, String workerId) {
+        return outbox.getStatus() == MailOutbox.Status.IN_PROGRESS && workerId.equals(outbox.getClaimedBy());
+    }
+
+    private void releaseReferences(List<OutboxAttachment> attachments, long receivers) {
+        if (receivers <= 0 || attachments.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> references = new HashMap<>();
+        for (OutboxAttachment attachment : attachments) {
+            references.merge(attachment.blobId(), receivers, Long::sum);
+        }
+        attachmentBlobService.releaseReferences(references);
+    }
+
+    private List<OutboxAttachment> attachmentList(MailOutbox outbox) {
+        if (outbox.getAttachments() == null || outbox.getAttachments().isEmpty()) {
+            return List.of();
+        }
+        return jsonMapper.readValue(outbox.getAttachments(), ATTACHMENT_LIST);
+    }
+}
@@ -0,0 +1,181 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import eg.edu.alexu.cse.mail_server.Entity.MailOutbox;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Drains the mail outbox with a bounded pool of delivery threads
+ * Polls for due entries, and is also woken up right after a send commits
+ * Entries are only claimed when a thread is free, the rest wait in the table,
+ * so a burst of sends never piles up in memory and survives a restart
+ * Claims are leases of this instance (workerId), see OutboxService: entries claimed by an
+ * instance that died go back to the queue once their lease expires, those of live instances never do
+ *
+ * Metrics: mail.outbox.depth (entries not delivered yet), mail.outbox.oldest.age
+ * (seconds since the oldest of them was sent), mail.outbox.delivery.lag (send to
+ * delivery time), mail.outbox.retries and mail.outbox.failed
+ * Each delivery batch is timed in mail.outbox.batch (see SendMetrics)
+ */
+@Component
+public class OutboxWorker {
+
+    private static final int WORKERS = 4;
+    private static final List<MailOutbox.Status> QUEUED =
+            List.of(MailOutbox.Status.PENDING, MailOutbox.Status.IN_PROGRESS);
+
+    private final OutboxService outboxService;
+    private final MailOutboxRepository mailOutboxRepository;
+    private final SendMetrics sendMetrics;
+    private final ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+    // Identifies the claims of this instance, new on every start
+    private final String workerId = UUID.randomUUID().toString();
+    // One permit per idle worker, entries are claimed only when a permit is available
+    private final Semaphore idleWorkers = new Semaphore(WORKERS);
+
+    private final AtomicLong depth = new AtomicLong();
+    private final AtomicLong oldestAgeSeconds = new AtomicLong();
+    private final Timer deliveryLag;
+    private final Counter retries;
+    private final Counter failed;
+
+    public OutboxWorker(OutboxService outboxService, MailOutboxRepository mailOutboxRepository,
+                        SendMetrics sendMetrics, MeterRegistry meterRegistry) {
+        this.outboxService = outboxService;
+        this.mailOutboxRepository = mailOutboxRepository;
+        this.sendMetrics = sendMetrics;
+        Gauge.builder("mail.outbox.depth", depth, AtomicLong::get)
+                .description("Outbox entries not delivered yet")
+                .register(meterRegistry);
+        Gauge.builder("mail.outbox.oldest.age", oldestAgeSeconds, AtomicLong::get)
+                .description("Seconds since the oldest undelivered mail was sent")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        this.deliveryLag = Timer.builder("mail.outbox.delivery.lag")
+                .description("Time from send to the last inbox copy being delivered")
+                .register(meterRegistry);
+        this.retries = Counter.builder("mail.outbox.retries")
+                .description("Delivery attempts that failed and were rescheduled")
+                .register(meterRegistry);
+        this.failed = Counter.builder("mail.outbox.failed")
+                .description("Outbox entries given up after the maximum number of attempts")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(3)
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void recoverClaims() {
+        int released = outboxService.releaseExpiredClaims();
+        if (released > 0) {
+            System.out.println("Re-queued " + released + " outbox entries claimed by a stopped instance");
+        }
+    }
+
+    // Deliver right after the send commits instead of waiting for the next poll
+    @TransactionalEventListener
+    public void onEnqueued(OutboxService.Enqueued event) {
+        dispatch();
+    }
+
+    @Scheduled(fixedDelay = 1000)
+    public void poll() {
+        refreshMetrics();
+        dispatch();
+    }
+
+    /**
+     * Claim as many due entries as there are idle workers and hand them over
+     */
+    private void dispatch() {
+        int idle = idleWorkers.availablePermits();
+        if (idle == 0) {
+            return;
+        }
+        for (Long outboxId : mailOutboxRepository.findDueIds(LocalDateTime.now(), PageRequest.of(0, idle))) {
+            if (!idleWorkers.tryAcquire()) {
+                return;
+            }
+            // The permit goes back unless a worker took the entry, whatever fails on the way
+            boolean handedOver = false;
+            try {
+                if (!outboxService.claim(outboxId, workerId)) {
+                    continue;
+                }
+                executor.execute(() -> {
+                    try {
+                        deliver(outboxId);
+                    } finally {
+                        idleWorkers.release();
+                    }
+                });
+                handedOver = true;
+            } finally {
+                if (!handedOver) {
+                    idleWorkers.release();
+                }
+            }
+        }
+    }
+
+    private void deliver(Long outboxId) {
+        try {
+            OutboxService.BatchResult result;
+            do {
+                long started = System.nanoTime();
+                result = outboxService.deliverNextBatch(outboxId, workerId);
+                sendMetrics.recordDeliveryBatch(result.receivers(), System.nanoTime() - started);
+            } while (!result.done());
+            deliveryLag.record(Duration.between(result.createdAt(), LocalDateTime.now()));
+        } catch (OutboxService.ClaimLostException | OptimisticLockingFailureException e) {
+            // Claim expired and taken over, the last batch rolled back: the new owner delivers the rest
+            System.err.println("Stopped delivering outbox entry " + outboxId + ": " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Delivery of outbox entry " + outboxId + " failed: " + e.getMessage());
+            try {
+                if (outboxService.recordFailure(outboxId, workerId, e.getMessage())) {
+                    failed.increment();
+                } else {
+                    retries.increment();
+                }
+            } catch (RuntimeException recordError) {
+                // Stays claimed, recoverClaims re-queues it once the claim expires
+                System.err.println("Could not reschedule outbox entry " + outboxId + ": " + recordError.getMessage());
+            }
+        }
+    }
+
+    private void refreshMetrics() {
+        depth.set(mailOutboxRepository.countByStatusIn(QUEUED));
+        LocalDateTime oldest = mailOutboxRepository.findOldestCreatedAt(QUEUED);
+        oldestAgeSeconds.set(oldest == null ? 0 : Duration.between(oldest, LocalDateTime.now()).toSeconds());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Entries still in progress are re-queued by recoverClaims once their claims expire
+        executor.shutdown();
+    }
+}
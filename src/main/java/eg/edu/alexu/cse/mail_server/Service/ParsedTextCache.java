@@ -0,0 +1,149 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Text extracted from attachment files, keyed by the SHA-256 of the file (AttachmentBlob.sha256)
+ * so a file forwarded to many people is parsed by Tika once
+ *
+ * Two tiers: recently used texts in memory, bounded by their total size (least recently
+ * used first out), and every text gzipped on disk under the upload directory, which
+ * survives restarts and is shared by every instance using the same upload directory
+ *
+ * Metrics: mail.text.cache.requests (result=memory/disk/miss), mail.text.cache.memory.bytes
+ */
+@Component
+public class ParsedTextCache {
+
+    // About 2 bytes per char in memory
+    private static final long MAX_MEMORY_BYTES = 32L * 1024 * 1024;
+
+    private final FileStorageService fileStorageService;
+    private final Map<String, String> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter misses;
+
+    public ParsedTextCache(FileStorageService fileStorageService, MeterRegistry meterRegistry) {
+        this.fileStorageService = fileStorageService;
+        this.memoryHits = Counter.builder("mail.text.cache.requests").tag("result", "memory")
+                .description("Extracted texts served from memory")
+                .register(meterRegistry);
+        this.diskHits = Counter.builder("mail.text.cache.requests").tag("result", "disk")
+                .description("Extracted texts read back from the disk tier")
+                .register(meterRegistry);
+        this.misses = Counter.builder("mail.text.cache.requests").tag("result", "miss")
+                .description("Files that had to be parsed")
+                .register(meterRegistry);
+        Gauge.builder("mail.text.cache.memory.bytes", this, ParsedTextCache::memoryBytes)
+                .description("Estimated size of the texts held in memory")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Text of a file, from memory or else from disk
+     * @param sha256 hash of the file content
+     * @return empty if the file was never parsed
+     */
+    public Optional<String> get(String sha256) {
+        if (sha256 == null) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            String text = memory.get(sha256);
+            if (text != null) {
+                memoryHits.increment();
+                return Optional.of(text);
+            }
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(fileStorageService.textCachePath(sha256)))) {
+            String text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            diskHits.increment();
+            remember(sha256, text);
+            return Optional.of(text);
+        } catch (NoSuchFileException e) {
+            misses.increment();
+            return Optional.empty();
+        } catch (IOException e) {
+            // Unreadable entry: parsed again and rewritten
+            System.err.println("Could not read cached text " + sha256 + ": " + e.getMessage());
+            misses.increment();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Keep the text of a parsed file in both tiers
+     * The disk entry is written to a temporary file and moved in place, readers never see half of it
+     */
+    public void put(String sha256, String text) {
+        if (sha256 == null || text == null) {
+            return;
+        }
+        remember(sha256, text);
+        Path target = fileStorageService.textCachePath(sha256);
+        Path temp = target.resolveSibling(sha256 + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                out.write(text.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // The memory tier still has it, the disk tier is only an optimization
+            System.err.println("Could not write cached text " + sha256 + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    private synchronized void remember(String sha256, String text) {
+        long size = weight(text);
+        if (size > MAX_MEMORY_BYTES) {
+            return;
+        }
+        String previous = memory.put(sha256, text);
+        if (previous != null) {
+            memoryBytes -= weight(previous);
+        }
+        memoryBytes += size;
+        // Access-ordered: the first entries are the least recently used
+        var eldest = memory.entrySet().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && eldest.hasNext()) {
+            memoryBytes -= weight(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(String text) {
+        return 2L * text.length();
+    }
+}
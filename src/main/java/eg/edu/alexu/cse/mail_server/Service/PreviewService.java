@@ -0,0 +1,403 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Small JPEG previews of image attachments and of the first page of PDFs, so a preview
+ * tile does not download the original
+ *
+ * Previews are made once per blob in every size of SIZES, in the background after the
+ * upload commits, and written next to the blob (see FileStorageService.previewPath).
+ * A blob whose previews are missing (stored before this existed, or the queue was full)
+ * is queued by its first preview request, which does not wait for it: the caller is told
+ * the preview is pending and asks again. Files that cannot be rendered, or not within
+ * RENDER_TIMEOUT, get a marker file and are not tried again
+ *
+ * Images are decoded subsampled to about twice the largest size, PDFs are rendered at the
+ * scale of the largest size, so memory does not grow with the resolution of the original.
+ * Decoding runs on a render thread that is interrupted after RENDER_TIMEOUT, so a file that
+ * never finishes only holds that thread and not a worker
+ *
+ * Metrics: mail.attachment.preview (time per blob, by kind and outcome), .queue, .rendering
+ */
+@Service
+public class PreviewService {
+
+    // Longest side of a preview, in pixels
+    public static final int[] SIZES = {128, 256, 512};
+    public static final int DEFAULT_SIZE = 256;
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_CAPACITY = 200;
+    private static final long MAX_SOURCE_BYTES = 50L * 1024 * 1024;
+    private static final float JPEG_QUALITY = 0.8f;
+    // Longest decode of one file, a slower one is treated as unrenderable
+    private static final Duration RENDER_TIMEOUT = Duration.ofSeconds(20);
+    // Room for renders that ignore the interrupt and keep running after their timeout
+    private static final int MAX_RENDER_THREADS = WORKERS * 4;
+
+    public enum State {
+        READY,   // path is the preview file
+        PENDING, // being made, ask again later
+        NONE     // this file has no preview
+    }
+
+    public record Preview(State state, Path path) {
+    }
+
+    private final FileStorageService fileStorageService;
+    private final MeterRegistry meterRegistry;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    private final ThreadPoolExecutor renderExecutor = new ThreadPoolExecutor(0, MAX_RENDER_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "preview-render");
+                // A render that never stops must not keep the JVM alive
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Blobs queued or being rendered, a request for one of them does not queue it again
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public PreviewService(FileStorageService fileStorageService, MeterRegistry meterRegistry) {
+        this.fileStorageService = fileStorageService;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("mail.attachment.preview.queue", executor, pool -> pool.getQueue().size())
+                .description("Blobs waiting for their previews")
+                .register(meterRegistry);
+        Gauge.builder("mail.attachment.preview.rendering", renderExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("Renders running, including the ones still going after their timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return true for the content types a preview is made of
+     */
+    public static boolean isPreviewable(String contentType) {
+        return kind(contentType) != null;
+    }
+
+    /**
+     * The preview size used for a requested size: the smallest one at least as large, or the largest
+     */
+    public static int sizeFor(Integer requested) {
+        if (requested == null) {
+            return DEFAULT_SIZE;
+        }
+        for (int size : SIZES) {
+            if (requested <= size) {
+                return size;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * Make the previews of a new blob once the caller's transaction commits
+     */
+    public void submitAfterCommit(String sha256, String contentType) {
+        if (!isPreviewable(contentType)) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submitIfMissing(sha256, contentType);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                submitIfMissing(sha256, contentType);
+            }
+        });
+    }
+
+    /**
+     * Preview file of a blob. One that was never made is queued and reported pending, without waiting for it
+     *
+     * @param size one of SIZES, see sizeFor
+     * @return NONE if the type has no preview or the file cannot be rendered
+     */
+    public Preview preview(String sha256, String contentType, int size) {
+        if (!isPreviewable(contentType)) {
+            return new Preview(State.NONE, null);
+        }
+        Path path = fileStorageService.previewPath(sha256, size);
+        if (Files.exists(path)) {
+            return new Preview(State.READY, path);
+        }
+        if (Files.exists(fileStorageService.previewFailedPath(sha256))) {
+            return new Preview(State.NONE, null);
+        }
+        // Queue full: queued again by the next request
+        submit(sha256, contentType);
+        return new Preview(State.PENDING, null);
+    }
+
+    /**
+     * Delete the previews of a blob whose file was deleted
+     */
+    public void delete(String sha256) {
+        try {
+            for (int size : SIZES) {
+                Files.deleteIfExists(fileStorageService.previewPath(sha256, size));
+            }
+            Files.deleteIfExists(fileStorageService.previewFailedPath(sha256));
+        } catch (IOException e) {
+            System.err.println("Could not delete previews of " + sha256 + ": " + e.getMessage());
+        }
+    }
+
+    private void submitIfMissing(String sha256, String contentType) {
+        if (!Files.exists(fileStorageService.previewPath(sha256, SIZES[SIZES.length - 1]))) {
+            submit(sha256, contentType);
+        }
+    }
+
+    private void submit(String sha256, String contentType) {
+        if (!inFlight.add(sha256)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(sha256, kind(contentType));
+                } catch (RuntimeException e) {
+                    System.err.println("Preview of " + sha256 + " failed: " + e.getMessage());
+                } finally {
+                    inFlight.remove(sha256);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full: made on the first request instead
+            inFlight.remove(sha256);
+        }
+    }
+
+    /**
+     * Render the largest size from the file, then each smaller size from the one above it
+     */
+    private void generate(String sha256, String kind) {
+        long started = System.nanoTime();
+        Path source = fileStorageService.blobPath(sha256);
+        String outcome;
+        try {
+            if (!Files.exists(source)) {
+                outcome = "missing";
+            } else if (Files.size(source) > MAX_SOURCE_BYTES) {
+                outcome = "too_large";
+            } else {
+                BufferedImage image = decodeWithTimeout(source, kind, SIZES[SIZES.length - 1]);
+                if (image == null) {
+                    outcome = "unsupported";
+                } else {
+                    for (int i = SIZES.length - 1; i >= 0; i--) {
+                        image = fit(image, SIZES[i]);
+                        write(image, fileStorageService.previewPath(sha256, SIZES[i]));
+                    }
+                    outcome = "ok";
+                }
+            }
+        } catch (TimeoutException e) {
+            outcome = "timeout";
+        } catch (RejectedExecutionException e) {
+            // Every render thread is stuck on a file, made on a later request
+            outcome = "busy";
+        } catch (InterruptedException e) {
+            // Shutting down, made on a later request
+            Thread.currentThread().interrupt();
+            outcome = "interrupted";
+        } catch (Exception e) {
+            // Corrupt, encrypted or otherwise unreadable
+            outcome = "failed";
+        }
+        if (outcome.equals("unsupported") || outcome.equals("failed") || outcome.equals("too_large")
+                || outcome.equals("timeout")) {
+            markFailed(sha256);
+        }
+        Timer.builder("mail.attachment.preview")
+                .description("Making the previews of one attachment file")
+                .tags("kind", kind, "outcome", outcome)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(System.nanoTime() - started));
+    }
+
+    /**
+     * Decode on a render thread, interrupt it after RENDER_TIMEOUT
+     * @return null if the file has nothing to render, see readImage and renderFirstPage
+     */
+    private BufferedImage decodeWithTimeout(Path source, String kind, int target) throws Exception {
+        Future<BufferedImage> decode = renderExecutor.submit(
+                () -> kind.equals("pdf") ? renderFirstPage(source, target) : readImage(source, target));
+        try {
+            return decode.get(RENDER_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            decode.cancel(true);
+            throw e;
+        } catch (InterruptedException e) {
+            decode.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Decode every n-th pixel of the image, keeping at least twice the target size
+     * @return null if no ImageIO reader knows the format
+     */
+    private static BufferedImage readImage(Path file, int target) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, longest / (2 * target));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Render the first page so its longest side is about the target size
+     * @return null for a document without pages
+     */
+    private static BufferedImage renderFirstPage(Path file, int target) throws IOException {
+        // Large documents are buffered in temporary files, not on the heap
+        try (PDDocument document = PDDocument.load(file.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            if (document.getNumberOfPages() == 0) {
+                return null;
+            }
+            PDRectangle box = document.getPage(0).getCropBox();
+            // Scale 1 renders one pixel per point
+            float scale = target / Math.max(box.getWidth(), box.getHeight());
+            return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+        }
+    }
+
+    /**
+     * Scale down to fit a square of the given size, on white since JPEG has no transparency
+     */
+    private static BufferedImage fit(BufferedImage source, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Write a JPEG to a temporary file and move it in place, readers never see half of it
+     */
+    private static void write(BufferedImage image, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writer.dispose();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void markFailed(String sha256) {
+        try {
+            Path marker = fileStorageService.previewFailedPath(sha256);
+            Files.createDirectories(marker.getParent());
+            Files.write(marker, new byte[0]);
+        } catch (IOException e) {
+            System.err.println("Could not mark preview of " + sha256 + " as failed: " + e.getMessage());
+        }
+    }
+
+    private static String kind(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        if (contentType.startsWith("image/")) {
+            return "image";
+        }
+        if (contentType.equals("application/pdf")) {
+            return "pdf";
+        }
+        return null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Unfinished previews are made on their first request
+        executor.shutdownNow();
+        renderExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,238 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bloom filter of every registered email, consulted by UserIdentityCache before
+ * it queries the users table: an address the filter has never seen is unknown for
+ * sure and is rejected without a round trip, an address it may have seen is looked
+ * up as before (about TARGET_FALSE_POSITIVE_RATE of the unknown ones get through)
+ *
+ * Built from the users table once the application is ready, registrations are added
+ * by SaveUserHandler. Users added any other way (SQL import, another instance) are
+ * missing until the next rebuild, every REBUILD_INTERVAL_MS, which also resizes the filter
+ * as users grow. Emails are compared ignoring case, like the database collation.
+ * Until the first build is done every address passes
+ *
+ * Metrics: mail.recipient.filter.checks (result=rejected/passed), mail.recipient.filter.false.positives
+ * (passed but unknown), mail.recipient.filter.false.positive.rate (observed) and
+ * mail.recipient.filter.expected.false.positive.rate, .entries and .bits
+ */
+@Component
+public class RecipientFilter {
+
+    private static final double TARGET_FALSE_POSITIVE_RATE = 0.01;
+    // Longest time a user registered outside SaveUserHandler is rejected as unknown
+    private static final long REBUILD_INTERVAL_MS = 300_000;
+    // Room for growth between rebuilds
+    private static final int MIN_CAPACITY = 10_000;
+    private static final int GROWTH_FACTOR = 2;
+    // About 120 MB of bits at the target rate
+    private static final long MAX_CAPACITY = 100_000_000L;
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Counter rejected;
+    private final Counter passed;
+    private final Counter falsePositives;
+
+    private BitSet bits = new BitSet();
+    private int bitCount;
+    private int hashCount;
+    private int entries;
+    private boolean ready;
+    // Registrations made while the filter is being rebuilt, replayed into the new one
+    private List<String> addedDuringBuild;
+
+    public RecipientFilter(UserRepository userRepository, PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.rejected = Counter.builder("mail.recipient.filter.checks").tag("result", "rejected")
+                .description("Addresses rejected by the filter without a users query")
+                .register(meterRegistry);
+        this.passed = Counter.builder("mail.recipient.filter.checks").tag("result", "passed")
+                .description("Addresses the filter let through to the users query")
+                .register(meterRegistry);
+        this.falsePositives = Counter.builder("mail.recipient.filter.false.positives")
+                .description("Addresses that passed the filter but belong to no user")
+                .register(meterRegistry);
+        Gauge.builder("mail.recipient.filter.false.positive.rate", this, RecipientFilter::observedFalsePositiveRate)
+                .description("Share of unknown addresses that passed the filter")
+                .register(meterRegistry);
+        Gauge.builder("mail.recipient.filter.expected.false.positive.rate", this, RecipientFilter::expectedFalsePositiveRate)
+                .description("False positive rate expected from the filter size and its entries")
+                .register(meterRegistry);
+        Gauge.builder("mail.recipient.filter.entries", this, RecipientFilter::entries).register(meterRegistry);
+        Gauge.builder("mail.recipient.filter.bits", this, RecipientFilter::bitCount).register(meterRegistry);
+    }
+
+    /**
+     * Build the filter from the users table
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        long users = userRepository.count();
+        int newCapacity = (int) Math.max(MIN_CAPACITY, Math.min(MAX_CAPACITY, users * GROWTH_FACTOR));
+        int newBitCount = optimalBitCount(newCapacity);
+        int newHashCount = optimalHashCount(newCapacity, newBitCount);
+        BitSet newBits = new BitSet(newBitCount);
+
+        synchronized (this) {
+            addedDuringBuild = new ArrayList<>();
+        }
+        // Streamed: the emails are never all held in memory
+        int added = readOnlyTransaction.execute(status -> {
+            int count = 0;
+            try (Stream<String> emails = userRepository.streamAllEmails()) {
+                for (String email : (Iterable<String>) emails::iterator) {
+                    set(newBits, newBitCount, newHashCount, email);
+                    count++;
+                }
+            }
+            return count;
+        });
+        synchronized (this) {
+            for (String email : addedDuringBuild) {
+                set(newBits, newBitCount, newHashCount, email);
+                added++;
+            }
+            addedDuringBuild = null;
+            bits = newBits;
+            bitCount = newBitCount;
+            hashCount = newHashCount;
+            entries = added;
+            ready = true;
+        }
+        System.out.println("Recipient filter built: " + added + " emails in " + newBitCount + " bits");
+    }
+
+    /**
+     * Rebuild from the users table whatever the fill: picks up users SaveUserHandler never saw,
+     * and keeps the filter sized for the current number of users
+     */
+    @Scheduled(initialDelay = REBUILD_INTERVAL_MS, fixedDelay = REBUILD_INTERVAL_MS)
+    public void rebuild() {
+        build();
+    }
+
+    /**
+     * Add a newly registered email
+     */
+    public synchronized void add(String email) {
+        if (email == null) {
+            return;
+        }
+        if (addedDuringBuild != null) {
+            addedDuringBuild.add(email);
+        }
+        if (ready) {
+            set(bits, bitCount, hashCount, email);
+            entries++;
+        }
+    }
+
+    /**
+     * @return false if no user has this email for sure, true if one may have it
+     */
+    public synchronized boolean mightContain(String email) {
+        if (!ready) {
+            return true;
+        }
+        long hash = hash(email);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            if (!bits.get(index(h1, h2, i, bitCount))) {
+                rejected.increment();
+                return false;
+            }
+        }
+        passed.increment();
+        return true;
+    }
+
+    /**
+     * An address passed the filter but the users query found nobody
+     */
+    public void falsePositive() {
+        falsePositives.increment();
+    }
+
+    public synchronized int entries() {
+        return entries;
+    }
+
+    public synchronized int bitCount() {
+        return bitCount;
+    }
+
+    // False positives among all unknown addresses checked (the rejected ones are all unknown)
+    private double observedFalsePositiveRate() {
+        double unknown = rejected.count() + falsePositives.count();
+        return unknown == 0 ? 0 : falsePositives.count() / unknown;
+    }
+
+    // (1 - e^(-k * n / m))^k
+    private synchronized double expectedFalsePositiveRate() {
+        if (!ready || bitCount == 0) {
+            return 0;
+        }
+        return Math.pow(1 - Math.exp(-(double) hashCount * entries / bitCount), hashCount);
+    }
+
+    private static void set(BitSet bits, int bitCount, int hashCount, String email) {
+        long hash = hash(email);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            bits.set(index(h1, h2, i, bitCount));
+        }
+    }
+
+    // Double hashing: the i-th bit is h1 + i * h2, two halves of one 64 bit hash
+    private static int index(int h1, int h2, int i, int bitCount) {
+        return Math.floorMod(h1 + i * h2, bitCount);
+    }
+
+    // 64 bit FNV-1a of the lower-cased email, followed by a final mix so both halves are well spread
+    private static long hash(String email) {
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    // m = -n * ln(p) / ln(2)^2
+    private static int optimalBitCount(int capacity) {
+        return (int) Math.ceil(-capacity * Math.log(TARGET_FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+    }
+
+    // k = m / n * ln(2)
+    private static int optimalHashCount(int capacity, int bitCount) {
+        return Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+    }
+}
@@ -0,0 +1,202 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.time.Duration;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Per-stage latency of the send pipeline, read through /actuator/metrics
+ *
+ * mail.send.stage: one timer per stage of a send (resolve_users, sent_copy, attachments,
+ * enqueue, commit and total), tagged with the send mode, a recipient-count bucket and
+ * an attachment-size bucket
+ * mail.attachment.store: storing one attachment (disk_write, blob and total), tagged with its size bucket
+ * mail.outbox.batch: one delivery batch of inbox copies, commit included, tagged with its recipient bucket
+ *
+ * All timers publish a percentile histogram only: percentiles are computed from its buckets by
+ * the monitoring backend, so they can be aggregated across tags and instances
+ */
+@Component
+public class SendMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public SendMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Start timing one send, call stage() after each stage and finish() once the send is written
+     * Called inside the send's transaction, the outcome is recorded when it completes:
+     * a send that fails before finish() (unknown receiver) is counted as rolled_back too
+     *
+     * @param mode plain, attachments or bulk
+     * @param recipients number of receivers given
+     * @param attachmentBytes total size of the attachments, 0 without attachments
+     */
+    public SendTrace start(String mode, int recipients, long attachmentBytes) {
+        SendTrace trace = new SendTrace(mode, recipientBucket(recipients), sizeBucket(attachmentBytes));
+        trace.recordOnCompletion();
+        return trace;
+    }
+
+    /**
+     * Start timing the storage of one attachment
+     */
+    public AttachmentTrace startAttachment(long size) {
+        return new AttachmentTrace(sizeBucket(size));
+    }
+
+    /**
+     * One delivery batch of the outbox
+     */
+    public void recordDeliveryBatch(int recipients, long nanos) {
+        timer("mail.outbox.batch", "Delivery of one batch of inbox copies, commit included")
+                .tags("recipients", recipientBucket(recipients))
+                .register(meterRegistry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Stages of one send, each stage is the time since the previous one
+     */
+    public final class SendTrace {
+        private final String mode;
+        private final String recipients;
+        private final String attachments;
+        private final long started = System.nanoTime();
+        private long last = started;
+        private boolean transactional;
+
+        private SendTrace(String mode, String recipients, String attachments) {
+            this.mode = mode;
+            this.recipients = recipients;
+            this.attachments = attachments;
+        }
+
+        public void stage(String stage) {
+            long now = System.nanoTime();
+            record(stage, now - last);
+            last = now;
+        }
+
+        /**
+         * End of the send: in a transaction the commit and the total are recorded when it
+         * completes, without one the total is recorded right away
+         */
+        public void finish() {
+            if (!transactional) {
+                record("total", System.nanoTime() - started);
+            }
+        }
+
+        // Commit and total, or rolled_back, when the surrounding transaction completes
+        private void recordOnCompletion() {
+            transactional = TransactionSynchronizationManager.isSynchronizationActive();
+            if (!transactional) {
+                return;
+            }
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private long commitStarted;
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    commitStarted = System.nanoTime();
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    long now = System.nanoTime();
+                    if (status == STATUS_COMMITTED) {
+                        // Flush of the pending inserts and the database commit
+                        record("commit", now - commitStarted);
+                        record("total", now - started);
+                    } else {
+                        record("rolled_back", now - started);
+                    }
+                }
+            });
+        }
+
+        private void record(String stage, long nanos) {
+            timer("mail.send.stage", "Time spent in one stage of a send")
+                    .tags("stage", stage, "mode", mode, "recipients", recipients, "attachments", attachments)
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(nanos));
+        }
+    }
+
+    /**
+     * Stages of storing one attachment
+     */
+    public final class AttachmentTrace {
+        private final String size;
+        private final long started = System.nanoTime();
+        private long last = started;
+
+        private AttachmentTrace(String size) {
+            this.size = size;
+        }
+
+        public void stage(String stage) {
+            long now = System.nanoTime();
+            record(stage, now - last);
+            last = now;
+        }
+
+        public void finish() {
+            record("total", System.nanoTime() - started);
+        }
+
+        private void record(String stage, long nanos) {
+            timer("mail.attachment.store", "Time spent storing one attachment")
+                    .tags("stage", stage, "size", size)
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(nanos));
+        }
+    }
+
+    private static Timer.Builder timer(String name, String description) {
+        return Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram();
+    }
+
+    // Few buckets keep the number of tagged timers small
+    static String recipientBucket(int recipients) {
+        if (recipients <= 1) {
+            return String.valueOf(Math.max(recipients, 0));
+        }
+        if (recipients <= 10) {
+            return "2-10";
+        }
+        if (recipients <= 100) {
+            return "11-100";
+        }
+        if (recipients <= 1000) {
+            return "101-1000";
+        }
+        return "1001+";
+    }
+
+    static String sizeBucket(long bytes) {
+        if (bytes <= 0) {
+            return "none";
+        }
+        if (bytes < 100 * 1024) {
+            return "under-100KB";
+        }
+        if (bytes < 1024 * 1024) {
+            return "100KB-1MB";
+        }
+        if (bytes < 10 * 1024 * 1024) {
+            return "1MB-10MB";
+        }
+        return "10MB+";
+    }
+}
@@ -0,0 +1,63 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.util.List;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+
+/**
+ * One-off job that fills Mail.snippet for mails stored before the column existed
+ * Runs once the application is ready, in small batches so no single
+ * transaction holds many bodies in memory
+ */
+@Service
+public class SnippetBackfillService {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final MailRepository mailRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public SnippetBackfillService(MailRepository mailRepository, PlatformTransactionManager transactionManager) {
+        this.mailRepository = mailRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillSnippets() {
+        long lastId = 0L;
+        int updated = 0;
+        while (true) {
+            final long afterId = lastId;
+            List<Long> filledIds = transactionTemplate.execute(status -> fillBatch(afterId));
+            if (filledIds == null || filledIds.isEmpty()) {
+                break;
+            }
+            updated += filledIds.size();
+            lastId = filledIds.get(filledIds.size() - 1);
+        }
+        if (updated > 0) {
+            System.out.println("Backfilled snippets for " + updated + " existing mails");
+        }
+    }
+
+    /**
+     * Fill one batch, changes are flushed by dirty checking on commit
+     * @return ids of the mails filled in this batch, in ascending order
+     */
+    private List<Long> fillBatch(long afterId) {
+        List<Mail> mails = mailRepository.findBySnippetIsNullAndMailIdGreaterThanOrderByMailIdAsc(
+                afterId, PageRequest.of(0, BATCH_SIZE));
+        for (Mail mail : mails) {
+            mail.setSnippet(Mail.snippetOf(mail.getBody()));
+        }
+        return mails.stream().map(Mail::getMailId).toList();
+    }
+}
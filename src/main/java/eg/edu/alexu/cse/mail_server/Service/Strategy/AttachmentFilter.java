@@ -2,19 +2,17 @@ package eg.edu.alexu.cse.mail_server.Service.Strategy;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Service.ParsedTextCache;
 
-import java.io.ByteArrayInputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
-import org.apache.tika.Tika;
+import java.util.Optional;
 
 
 public class AttachmentFilter implements FilterStrategy{
 
-    private final String query;
-    private final Tika tika = new Tika();
+    private String query;
+    // Text of files already parsed by the indexer, null to match pending attachments by name only
+    private final ParsedTextCache parsedTextCache;
 
     // Scoring weights
     private static final int FILENAME_FULL_MATCH = 20;
@@ -27,6 +25,19 @@ public class AttachmentFilter implements FilterStrategy{
     private static final double SIGMOID_K = 0.02; // Controls curve steepness (0.01-0.05 recommended)
 
     public AttachmentFilter(String query) {
+        this(query, null);
+    }
+
+    public AttachmentFilter(ParsedTextCache parsedTextCache) {
+        this("", parsedTextCache);
+    }
+
+    private AttachmentFilter(String query, ParsedTextCache parsedTextCache) {
+        this.parsedTextCache = parsedTextCache;
+        setQuery(query);
+    }
+
+    public void setQuery(String query) {
         this.query = query.toLowerCase().trim();
     }
 
@@ -118,7 +129,9 @@ public class AttachmentFilter implements FilterStrategy{
         
         int partialScore = 0;
         for (String part : queryParts) {
-            partialScore += FILENAME_PARTIAL_MATCH * countOccurrences(fileNameLower, part);
+            if (!part.isEmpty()) {
+                partialScore += FILENAME_PARTIAL_MATCH * countOccurrences(fileNameLower, part);
+            }
         }
         return partialScore;
     }
@@ -135,37 +148,29 @@ public class AttachmentFilter implements FilterStrategy{
         
         int partialScore = 0;
         for (String part : queryParts) {
-            partialScore += CONTENT_PARTIAL_MATCH * countOccurrences(content, part);
+            if (!part.isEmpty()) {
+                partialScore += CONTENT_PARTIAL_MATCH * countOccurrences(content, part);
+            }
         }
         return partialScore;
     }
 
     private String extractText(Attachment att) {
-        try {
-            // First check if indexed content is available
-            if (att.getIndexedContent() != null && !att.getIndexedContent().isEmpty()) {
-                return att.getIndexedContent();
-            }
-            
-            // If not, read from file path
-            String filePath = att.getFilePath();
-            if (filePath == null || filePath.isEmpty()) {
-                return "";
-            }
-            
-            Path path = Paths.get(filePath);
-            if (!Files.exists(path)) {
-                return "";
-            }
-            
-            byte[] fileData = Files.readAllBytes(path);
-            ByteArrayInputStream stream = new ByteArrayInputStream(fileData);
-            return tika.parseToString(stream);
+        // Text extracted once in the background (see TextExtractionService)
+        if (att.getIndexedAt() != null) {
+            return att.getIndexedContent() == null ? "" : att.getIndexedContent();
         }
-        catch (Exception e) {
-            // Catch all exceptions including IOException, TikaException, and RuntimeException
-            return "";
+
+        // Not indexed yet, the same file may have been parsed for another mail
+        if (parsedTextCache != null && att.getBlob() != null) {
+            Optional<String> cached = parsedTextCache.get(att.getBlob().getSha256());
+            if (cached.isPresent()) {
+                return cached.get();
+            }
         }
+
+        // Never parsed on the search path: only the file name matches until the text is extracted
+        return "";
     }
 
     private int countOccurrences(String text, String keyword) {
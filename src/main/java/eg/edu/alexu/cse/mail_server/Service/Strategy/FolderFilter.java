@@ -1,6 +1,7 @@
 package eg.edu.alexu.cse.mail_server.Service.Strategy;
 
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
 
 import java.util.Objects;
 
@@ -8,7 +9,7 @@ public class FolderFilter implements FilterStrategy{
     private String folder ;
     @Override
     public boolean filter(Mail mail) {
-        return Objects.equals(mail.getFolderName(), folder);
+        return Objects.equals(mail.getFolderName(), MailFolders.normalize(folder));
     }
 
     @Override
@@ -1,8 +1,8 @@
 package eg.edu.alexu.cse.mail_server.Service.Strategy;
 
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
-import eg.edu.alexu.cse.mail_server.Entity.User;
-import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache.UserIdentity;
 
 import java.util.Arrays;
 import java.util.List;
@@ -13,14 +13,14 @@ public class SenderFilter implements FilterStrategy {
     // For now we will use sender name
     private String[] senderNames ;
 
-    private UserRepository repo ;
+    private UserIdentityCache identityCache ;
 
     public SenderFilter(String[] senderNames) {
         this.senderNames = senderNames;
     }
 
-    public SenderFilter(UserRepository repo) {
-        this.repo = repo;
+    public SenderFilter(UserIdentityCache identityCache) {
+        this.identityCache = identityCache;
     }
 
 
@@ -32,16 +32,13 @@ public class SenderFilter implements FilterStrategy {
     public boolean filter(Mail mail) {
         if (senderNames == null || senderNames.length == 0) return false;
         
-        Optional<User> senderOpt = repo.findByEmail(mail.getSender());
+        Optional<UserIdentity> senderOpt = identityCache.find(mail.getSender());
         if (senderOpt.isEmpty()) throw new NoSuchElementException("sender not found");
-        User sender = senderOpt.get();
+        UserIdentity sender = senderOpt.get();
 
-        String fullName = String.join(" ",
-                sender.getFirstName(),
-                sender.getLastName()
-        ).toLowerCase();
+        String fullName = sender.displayName().toLowerCase();
 
-        String email = sender.getEmail().toLowerCase();
+        String email = sender.email().toLowerCase();
         String emailLocalPart = email.split("@")[0];
 
         // Check each query against the sender
@@ -83,9 +80,9 @@ public class SenderFilter implements FilterStrategy {
     @Override
     public int getScore(Mail mail) {
         int maxScore = 0;
-        Optional<User> senderOpt = repo.findByEmail(mail.getSender()) ;
+        Optional<UserIdentity> senderOpt = identityCache.find(mail.getSender()) ;
         if (senderOpt.isEmpty()) throw new NoSuchElementException("sender not found");
-        User sender = senderOpt.get();
+        UserIdentity sender = senderOpt.get();
         for (String queryName : senderNames) {
             String query = queryName.trim().toLowerCase();
                 int score = calculateMatchScore(sender, query);
@@ -95,9 +92,9 @@ public class SenderFilter implements FilterStrategy {
         return maxScore;
     }
 
-    private int calculateMatchScore(User user, String query) {
-        String fullName = (user.getFirstName() + " " + user.getLastName()).toLowerCase();
-        String email = user.getEmail().toLowerCase();
+    private int calculateMatchScore(UserIdentity user, String query) {
+        String fullName = user.displayName().toLowerCase();
+        String email = user.email().toLowerCase();
         String emailLocalPart = email.split("@")[0];
 
         if (email.equals(query)) return 100;
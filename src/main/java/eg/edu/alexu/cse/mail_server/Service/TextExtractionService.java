@@ -0,0 +1,348 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.ToTextContentHandler;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.xml.sax.SAXException;
+
+import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Repository.AttachmentRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Extracts the text of attachments into Attachment.indexedContent, off the request path
+ * so search reads stored text instead of parsing files again on every query
+ *
+ * Attachments are handed over after their upload commits, and the table is polled for
+ * the rest (inbox copies written by the outbox, work lost on restart, rows stored before
+ * this existed). A file shared by several attachments is parsed once, its text is
+ * copied to every copy and kept in ParsedTextCache for later copies of the same file.
+ * Documents over MAX_DOCUMENT_BYTES are skipped, parsing is streamed into a handler that
+ * stops at MAX_TEXT_CHARS. Each parse runs on its own thread and is interrupted after
+ * PARSE_TIMEOUT, so a parser that hangs without emitting text only holds its parse thread:
+ * the worker moves on, and once MAX_PARSE_THREADS are stuck new parses wait for a later poll
+ *
+ * Metrics: mail.attachment.extraction.backlog (attachments waiting), .queue (handed to
+ * the pool and not started yet), .parsing (parse threads in use) and mail.attachment.extraction
+ * (time per document, by outcome)
+ */
+@Service
+public class TextExtractionService {
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_CAPACITY = 500;
+    private static final int POLL_BATCH_SIZE = 100;
+    private static final long MAX_DOCUMENT_BYTES = 20L * 1024 * 1024;
+    // Fits the TEXT column (64 KB) even with 4-byte characters
+    private static final int MAX_TEXT_CHARS = 16_000;
+    private static final Duration PARSE_TIMEOUT = Duration.ofSeconds(30);
+    // Room for parses that ignore the interrupt and keep running after their timeout
+    private static final int MAX_PARSE_THREADS = WORKERS * 4;
+    // Results that depend only on the file, the same file always gives the same text
+    private static final Set<String> CACHED_OUTCOMES = Set.of("ok", "truncated", "too_large");
+
+    private final AttachmentRepository attachmentRepository;
+    private final ParsedTextCache parsedTextCache;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Parser parser = new AutoDetectParser();
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY));
+    // No queue: a worker only hands over a parse when a thread is free for it
+    private final ThreadPoolExecutor parseExecutor = new ThreadPoolExecutor(0, MAX_PARSE_THREADS, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "text-extraction-parse");
+                // A parse that never stops must not keep the JVM alive
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Attachments queued or being extracted, so polling does not hand them over twice
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong backlog = new AtomicLong();
+
+    public TextExtractionService(AttachmentRepository attachmentRepository,
+                                 ParsedTextCache parsedTextCache,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry) {
+        this.attachmentRepository = attachmentRepository;
+        this.parsedTextCache = parsedTextCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("mail.attachment.extraction.backlog", backlog, AtomicLong::get)
+                .description("Attachments whose text is not extracted yet")
+                .register(meterRegistry);
+        Gauge.builder("mail.attachment.extraction.queue", executor, pool -> pool.getQueue().size())
+                .description("Attachments handed to the extraction workers and not started yet")
+                .register(meterRegistry);
+        Gauge.builder("mail.attachment.extraction.parsing", parseExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("Parses running, including the ones still going after their timeout")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Extract the text of new attachments once the caller's transaction commits
+     */
+    public void submitAfterCommit(Collection<Long> attachmentIds) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            attachmentIds.forEach(this::submit);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                attachmentIds.forEach(TextExtractionService.this::submit);
+            }
+        });
+    }
+
+    /**
+     * Hand pending attachments to idle workers, including the ones that were never submitted
+     */
+    @Scheduled(fixedDelay = 2000)
+    public void poll() {
+        backlog.set(attachmentRepository.countByIndexedAtIsNull());
+        int room = executor.getQueue().remainingCapacity();
+        if (backlog.get() == 0 || room == 0) {
+            return;
+        }
+        for (Long attachmentId : attachmentRepository.findUnindexedIds(
+                PageRequest.of(0, Math.min(room, POLL_BATCH_SIZE) + inFlight.size()))) {
+            submit(attachmentId);
+        }
+    }
+
+    private void submit(Long attachmentId) {
+        if (!inFlight.add(attachmentId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    extract(attachmentId);
+                } catch (RuntimeException e) {
+                    // Left pending, the next poll retries it
+                    System.err.println("Text extraction of attachment " + attachmentId + " failed: " + e.getMessage());
+                } finally {
+                    inFlight.remove(attachmentId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Queue full: the attachment stays pending and is picked up by a later poll
+            inFlight.remove(attachmentId);
+        }
+    }
+
+    private void extract(Long attachmentId) {
+        Attachment attachment = transactionTemplate.execute(status -> attachmentRepository.findById(attachmentId)
+                .filter(found -> found.getIndexedAt() == null)
+                .map(found -> {
+                    // Initialize the blob while the session is open
+                    found.getStoragePath();
+                    return found;
+                })
+                .orElse(null));
+        if (attachment == null) {
+            return;
+        }
+        Long blobId = attachment.getBlob() != null ? attachment.getBlob().getId() : null;
+        String sha256 = attachment.getBlob() != null ? attachment.getBlob().getSha256() : null;
+
+        // Another copy of the same file was already extracted: reuse its text
+        if (blobId != null) {
+            List<String> extracted = attachmentRepository.findIndexedContentOfBlob(blobId, PageRequest.of(0, 1));
+            if (!extracted.isEmpty()) {
+                store(attachmentId, blobId, extracted.get(0));
+                record("reused", 0);
+                return;
+            }
+            // Parsed before, possibly for a mail deleted since, or by another instance
+            Optional<String> cached = parsedTextCache.get(sha256);
+            if (cached.isPresent()) {
+                store(attachmentId, blobId, cached.get());
+                record("cached", 0);
+                return;
+            }
+        }
+
+        long started = System.nanoTime();
+        Path path = Paths.get(attachment.getStoragePath());
+        String outcome;
+        String text;
+        try {
+            if (!Files.exists(path)) {
+                outcome = "missing";
+                text = "";
+            } else if (Files.size(path) > MAX_DOCUMENT_BYTES) {
+                outcome = "too_large";
+                text = "";
+            } else {
+                LimitedTextHandler handler = new LimitedTextHandler(MAX_TEXT_CHARS);
+                outcome = parseWithTimeout(path, attachment, handler);
+                text = handler.text();
+            }
+        } catch (RejectedExecutionException e) {
+            // Every parse thread is taken by a parse that ignored its timeout: left pending for a later poll
+            record("busy", 0);
+            return;
+        } catch (InterruptedException e) {
+            // Shutting down, extracted after the next start
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            // Unsupported or corrupt documents are not retried
+            outcome = "failed";
+            text = "";
+        }
+        store(attachmentId, blobId, text);
+        if (CACHED_OUTCOMES.contains(outcome)) {
+            // Not a timeout or a failure, which may not happen again: later copies of the file are parsed again
+            parsedTextCache.put(sha256, text);
+        }
+        record(outcome, System.nanoTime() - started);
+    }
+
+    /**
+     * Parse on a parse thread, interrupt it and keep the text so far after PARSE_TIMEOUT
+     * @return the outcome of parse, or timeout
+     */
+    private String parseWithTimeout(Path path, Attachment attachment, LimitedTextHandler handler) throws Exception {
+        Future<String> parse = parseExecutor.submit(() -> parse(path, attachment, handler));
+        try {
+            return parse.get(PARSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            parse.cancel(true);
+            return "timeout";
+        } catch (InterruptedException e) {
+            parse.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    /**
+     * Stream the file through Tika into the handler
+     * @return ok, or truncated / timeout when the handler stopped the parse
+     */
+    private String parse(Path path, Attachment attachment, LimitedTextHandler handler) throws Exception {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, attachment.getFileName());
+        if (attachment.getContentType() != null) {
+            metadata.set(Metadata.CONTENT_TYPE, attachment.getContentType());
+        }
+        try (InputStream in = TikaInputStream.get(path)) {
+            parser.parse(in, handler, metadata, new ParseContext());
+            return "ok";
+        } catch (Exception e) {
+            // Some parsers wrap the handler's exception in a TikaException
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof LimitReachedException limit) {
+                    return limit.getMessage();
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void store(Long attachmentId, Long blobId, String text) {
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (blobId != null) {
+                attachmentRepository.updateIndexedContentOfBlob(blobId, text, now);
+            } else {
+                attachmentRepository.updateIndexedContent(attachmentId, text, now);
+            }
+        });
+    }
+
+    private void record(String outcome, long nanos) {
+        Timer.builder("mail.attachment.extraction")
+                .description("Text extraction of one attachment")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(Duration.ofNanos(nanos));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Unfinished attachments stay pending and are extracted after the next start
+        executor.shutdownNow();
+        parseExecutor.shutdownNow();
+    }
+
+    /**
+     * Stops the parse once enough text was collected or the parse was interrupted, the text so far is kept
+     */
+    private static final class LimitReachedException extends SAXException {
+        LimitReachedException(String outcome) {
+            super(outcome);
+        }
+    }
+
+    // Filled on the parse thread, read by the worker: synchronized so a timed out parse hands over what it has
+    private static final class LimitedTextHandler extends ToTextContentHandler {
+        private final StringBuilder text = new StringBuilder();
+        private final int maxChars;
+
+        LimitedTextHandler(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        @Override
+        public synchronized void characters(char[] ch, int start, int length) throws SAXException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new LimitReachedException("timeout");
+            }
+            int room = maxChars - text.length();
+            text.append(ch, start, Math.min(length, room));
+            if (length >= room) {
+                throw new LimitReachedException("truncated");
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        synchronized String text() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import eg.edu.alexu.cse.mail_server.Repository.UserIdentityView;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * In-process cache of email -> (userId, display name)
+ * Almost every request starts by resolving a user by email, this avoids a
+ * users query (plus the eager user_folders fetch) for each of them
+ *
+ * Bounded in size (least recently used entries are evicted first) and in age (TTL),
+ * unknown emails are never cached so a newly registered user is found right away
+ * Misses are checked against RecipientFilter first, unknown addresses are then rejected without a query
+ */
+@Component
+public class UserIdentityCache {
+
+    private static final int MAX_ENTRIES = 10_000;
+    private static final Duration TTL = Duration.ofMinutes(10);
+
+    /**
+     * Cached identity of one user
+     */
+    public record UserIdentity(Long userId, String email, String firstName, String lastName) {
+
+        public String displayName() {
+            return firstName + " " + lastName;
+        }
+    }
+
+    private record Entry(UserIdentity identity, long loadedAtNanos) {
+    }
+
+    private final UserRepository userRepository;
+    private final RecipientFilter recipientFilter;
+    private final Map<String, Entry> entries;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public UserIdentityCache(UserRepository userRepository, RecipientFilter recipientFilter,
+                             MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.recipientFilter = recipientFilter;
+        this.hits = Counter.builder("mail.user.cache.requests").tag("result", "hit")
+                .description("Email to user lookups served from the cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("mail.user.cache.requests").tag("result", "miss")
+                .description("Email to user lookups that went to the database")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("mail.user.cache.evictions")
+                .description("Entries dropped because the cache was full or the entry expired")
+                .register(meterRegistry);
+        // Access-ordered so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean full = size() > MAX_ENTRIES;
+                if (full) {
+                    evictions.increment();
+                }
+                return full;
+            }
+        };
+        Gauge.builder("mail.user.cache.size", this, UserIdentityCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Find a user by email
+     * @return the identity, empty if no user has this email
+     */
+    public Optional<UserIdentity> find(String email) {
+        if (email == null) {
+            return Optional.empty();
+        }
+        UserIdentity cached = getIfFresh(email);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        if (!recipientFilter.mightContain(email)) {
+            // Nobody registered this address, no query needed
+            return Optional.empty();
+        }
+        Optional<UserIdentity> loaded = userRepository.findIdentityByEmail(email).map(UserIdentityCache::toIdentity);
+        loaded.ifPresentOrElse(this::put, recipientFilter::falsePositive);
+        return loaded;
+    }
+
+    /**
+     * Find several users at once, the ones missing from the cache are loaded in a single query
+     * @return identities by email, emails of unknown users are not in the map
+     */
+    public Map<String, UserIdentity> findAll(Collection<String> emails) {
+        Map<String, UserIdentity> found = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String email : emails) {
+            if (email == null || found.containsKey(email)) {
+                continue;
+            }
+            UserIdentity cached = getIfFresh(email);
+            if (cached != null) {
+                hits.increment();
+                found.put(email, cached);
+            } else if (!missing.contains(email)) {
+                misses.increment();
+                // Addresses nobody registered are left out of the query
+                if (recipientFilter.mightContain(email)) {
+                    missing.add(email);
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            // Matched back ignoring case: a case-insensitive collation may return the stored spelling
+            Map<String, UserIdentity> loaded = new HashMap<>();
+            for (UserIdentityView view : userRepository.findByEmailIn(missing)) {
+                UserIdentity identity = toIdentity(view);
+                put(identity);
+                loaded.put(identity.email().toLowerCase(), identity);
+            }
+            for (String email : missing) {
+                UserIdentity identity = loaded.get(email.toLowerCase());
+                if (identity != null) {
+                    found.put(email, identity);
+                } else {
+                    recipientFilter.falsePositive();
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find a user that must exist
+     * @throws RuntimeException if no user has this email
+     */
+    public UserIdentity require(String email) {
+        return find(email).orElseThrow(() -> new RuntimeException("User not found: " + email));
+    }
+
+    public Long requireUserId(String email) {
+        return require(email).userId();
+    }
+
+    /**
+     * Add or refresh a user, called when a user is registered
+     */
+    public synchronized void put(UserIdentity identity) {
+        entries.put(identity.email(), new Entry(identity, System.nanoTime()));
+    }
+
+    /**
+     * Drop any cached identity for this email
+     */
+    public synchronized void evict(String email) {
+        entries.remove(email);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized UserIdentity getIfFresh(String email) {
+        Entry entry = entries.get(email);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAtNanos() > TTL.toNanos()) {
+            entries.remove(email);
+            evictions.increment();
+            return null;
+        }
+        return entry.identity();
+    }
+
+    private static UserIdentity toIdentity(UserIdentityView view) {
+        return new UserIdentity(view.getUserId(), view.getEmail(), view.getFirstName(), view.getLastName());
+    }
+}
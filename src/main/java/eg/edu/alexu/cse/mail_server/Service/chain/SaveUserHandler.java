@@ -2,6 +2,8 @@ package eg.edu.alexu.cse.mail_server.Service.chain;
 
 import eg.edu.alexu.cse.mail_server.Entity.User;
 import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.RecipientFilter;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache;
 import eg.edu.alexu.cse.mail_server.dto.UserFormDto;
 import eg.edu.alexu.cse.mail_server.dto.UserResponseDto;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +13,8 @@ import org.springframework.stereotype.Component;
 @RequiredArgsConstructor
 public class SaveUserHandler extends UserHandler {
     private final UserRepository userRepository;
+    private final UserIdentityCache userIdentityCache;
+    private final RecipientFilter recipientFilter;
 
     @Override
     public UserResponseDto handle(UserFormDto request) {
@@ -22,6 +26,8 @@ public class SaveUserHandler extends UserHandler {
                 .build();
 
         User savedUser = userRepository.save(user);
+        userIdentityCache.evict(savedUser.getEmail());
+        recipientFilter.add(savedUser.getEmail());
 
         System.out.println("Step 3: User Saved to Database.");
 
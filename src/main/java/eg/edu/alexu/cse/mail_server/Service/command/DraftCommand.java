@@ -5,8 +5,13 @@ import java.time.LocalDateTime;
 import org.springframework.stereotype.Component;
 
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
 import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
 import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.FolderCounterService;
+import eg.edu.alexu.cse.mail_server.Service.MessageContentService;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache;
 import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -16,26 +21,33 @@ import lombok.RequiredArgsConstructor;
 public class DraftCommand {
     private final UserRepository userRepository;
     private final MailRepository mailRepository;
+    private final FolderCounterService folderCounterService;
+    private final UserIdentityCache userIdentityCache;
+    private final MessageContentService messageContentService;
 
 
     @Transactional
     public Long execute(ComposeEmailDTO dto) {
-        var senderUser = userRepository.findByEmail(dto.getSender())
+        var sender = userIdentityCache.find(dto.getSender())
                 .orElseThrow(() -> new RuntimeException("Sender email not found: " + dto.getSender()));
+        var senderUser = userRepository.getReferenceById(sender.userId());
 
+        MessageContent content = messageContentService.resolve(dto.getSubject(), dto.getBody());
         Mail draft = Mail.builder()
                 .sender(dto.getSender())
                 .senderRel(senderUser)
                 .receiver(String.join(", ", dto.getReceivers()))
-                .subject(dto.getSubject())
-                .body(dto.getBody())
+                .subject(content.getSubject())
+                .content(content)
+                .snippet(Mail.snippetOf(dto.getBody()))
                 .timestamp(LocalDateTime.now())
-                .folderName("DRAFTS")
+                .folderName(MailFolders.DRAFTS)
                 .isRead(true)
                 .owner(senderUser)  // Set owner for draft
                 .build();
 
         Mail savedDraft = mailRepository.save(draft);
+        folderCounterService.mailAdded(senderUser.getUserId(), MailFolders.DRAFTS, true);
         return savedDraft.getMailId(); // Return the draft ID
     }
 }
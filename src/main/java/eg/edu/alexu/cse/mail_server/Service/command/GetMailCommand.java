@@ -27,12 +27,28 @@ public class GetMailCommand {
      * @throws IOException if file reading fails
      */
     public EmailViewDto execute(Long mailId) throws IOException {
+        return execute(mailId, false);
+    }
+
+    /**
+     * Execute the command to get mail with attachments.
+     *
+     * @param mailId the ID of the mail to retrieve
+     * @param byReference send attachment metadata and download URLs, only small files inline
+     * @return EmailViewDto containing mail data and attachments
+     * @throws RuntimeException if mail is not found
+     * @throws IOException if file reading fails
+     */
+    public EmailViewDto execute(Long mailId, boolean byReference) throws IOException {
 
-        Mail mail = mailRepository.findById(mailId)
+        // Body comes from the shared content, fetched in the same query
+        Mail mail = mailRepository.findWithContentByMailId(mailId)
                 .orElseThrow(() -> new RuntimeException("Mail not found with id: " + mailId));
 
 
-        List<AttachmentDTO> attachments = attachmentService.getAttachmentsWithData(mailId);
+        List<AttachmentDTO> attachments = byReference
+                ? attachmentService.getAttachmentsByReference(mailId)
+                : attachmentService.getAttachmentsWithData(mailId);
 
         return EmailViewDto.builder()
                 .id(mail.getMailId())
@@ -3,19 +3,33 @@ package eg.edu.alexu.cse.mail_server.Service.command;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 import eg.edu.alexu.cse.mail_server.Entity.Attachment;
+import eg.edu.alexu.cse.mail_server.Entity.AttachmentBlob;
 import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
 import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.MailBatchRepository;
 import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
 import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.AttachmentBlobService;
 import eg.edu.alexu.cse.mail_server.Service.AttachmentService;
+import eg.edu.alexu.cse.mail_server.Service.FolderCounterService;
+import eg.edu.alexu.cse.mail_server.Service.MessageContentService;
+import eg.edu.alexu.cse.mail_server.Service.OutboxService;
+import eg.edu.alexu.cse.mail_server.Service.OutboxService.OutboxAttachment;
+import eg.edu.alexu.cse.mail_server.Service.SendMetrics;
+import eg.edu.alexu.cse.mail_server.Service.SendMetrics.SendTrace;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache;
+import eg.edu.alexu.cse.mail_server.Service.UserIdentityCache.UserIdentity;
 import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -23,135 +37,222 @@ import lombok.RequiredArgsConstructor;
 @Component
 @RequiredArgsConstructor
 public class SendCommand implements MailCommand {
+    // Largest distribution list of one bulk send
+    private static final int MAX_BULK_RECEIVERS = 50_000;
+    // Length of the mail receiver column
+    private static final int RECEIVER_COLUMN_LENGTH = 255;
+
     private final UserRepository userRepository;
     private final MailRepository mailRepository;
+    private final MailBatchRepository mailBatchRepository;
     private final AttachmentService attachmentService;
+    private final AttachmentBlobService attachmentBlobService;
+    private final FolderCounterService folderCounterService;
+    private final UserIdentityCache userIdentityCache;
+    private final MessageContentService messageContentService;
+    private final OutboxService outboxService;
+    private final SendMetrics sendMetrics;
 
     @Override
-    @Transactional   // if error in receiver copy consider not sent copy (all or nothing)
+    @Transactional   // sent copy and outbox entry are written together (all or nothing)
     public void execute(ComposeEmailDTO dto) {
-        User senderUser = userRepository.findByEmail(dto.getSender())
+        SendTrace trace = sendMetrics.start("plain", receiverCount(dto), 0);
+        UserIdentity sender = userIdentityCache.find(dto.getSender())
                 .orElseThrow(() -> new RuntimeException("Sender email not found: " + dto.getSender()));
+        // Every receiver is resolved and validated before anything is written
+        Map<String, UserIdentity> receivers = resolveReceivers(dto.getReceivers());
+        trace.stage("resolve_users");
 
-        Mail sentCopy = Mail.builder()
-                .sender(dto.getSender())
-                .senderRel(senderUser)
-                .receiver(String.join(",", dto.getReceivers()))
-                .body(dto.getBody())
-                .subject(dto.getSubject())
-                .priority(dto.getPriority())
-                .attachments(null) // still need to handle
-                .folderName("SENT")
-                .isRead(true)
-                .timestamp(LocalDateTime.now())
-                .owner(senderUser)  // Set owner for sent copy
-                .build();
+        Mail sentCopy = saveSentCopy(dto, sender, String.join(",", dto.getReceivers()));
+        trace.stage("sent_copy");
 
-        mailRepository.save(sentCopy);
-
-        Queue<String> receiverQueue = new LinkedList<>(dto.getReceivers());
-        List<String> failedReceivers = new ArrayList<>();
-
-        while (!receiverQueue.isEmpty()) {
-            String receiverEmail = receiverQueue.poll();
-
-            if (userRepository.findByEmail(receiverEmail).isPresent()) {
-                User receiverUser = userRepository.findByEmail(receiverEmail).get();
-                Mail inboxCopy = Mail.builder()
-                        .sender(dto.getSender())
-                        .senderRel(senderUser)
-                        .receiver(receiverEmail)
-                        .subject(dto.getSubject())
-                        .body(dto.getBody())
-                        .priority(dto.getPriority())
-                        .timestamp(LocalDateTime.now())
-                        .folderName("INBOX")
-                        .isRead(false)
-                        .owner(receiverUser)  // Set owner as receiver for inbox copy
-                        .build();
-
-                mailRepository.save(inboxCopy);
-            } else {
-                failedReceivers.add(receiverEmail);
-            }
-        }
-        if (!failedReceivers.isEmpty()) {
-            throw new RuntimeException("the following receivers were not found: " + String.join(",", failedReceivers));
-        }
+        // Inbox copies are delivered asynchronously by OutboxWorker
+        outboxService.enqueue(sentCopy, receivers.keySet(), List.of());
+        trace.stage("enqueue");
+        trace.finish();
     }
 
     /**
      * Execute send command with attachments
-     * Creates sent copy with attachments and inbox copies for all receivers
+     * Creates sent copy with attachments and queues the inbox copies for all receivers
      * @param dto email details
      * @param attachments list of files to attach
      * @throws IOException if file processing fails
      */
     @Transactional
     public void executeWithAttachments(ComposeEmailDTO dto, List<MultipartFile> attachments) throws IOException {
-        User senderUser = userRepository.findByEmail(dto.getSender())
+        SendTrace trace = sendMetrics.start("attachments", receiverCount(dto), totalSize(attachments));
+        UserIdentity sender = userIdentityCache.find(dto.getSender())
+                .orElseThrow(() -> new RuntimeException("Sender email not found: " + dto.getSender()));
+        // Every receiver is resolved and validated before anything is written
+        Map<String, UserIdentity> receivers = resolveReceivers(dto.getReceivers());
+        trace.stage("resolve_users");
+
+        Mail sentCopy = saveSentCopy(dto, sender, String.join(",", dto.getReceivers()));
+        trace.stage("sent_copy");
+        List<OutboxAttachment> inboxAttachments = storeAttachments(attachments, sentCopy, receivers.size());
+        trace.stage("attachments");
+
+        // Inbox copies are delivered asynchronously by OutboxWorker
+        outboxService.enqueue(sentCopy, receivers.keySet(), inboxAttachments);
+        trace.stage("enqueue");
+        trace.finish();
+    }
+
+    /**
+     * Bulk send to a distribution list
+     * Only the sent copy and the outbox entry are written here: receivers are not validated
+     * up front, OutboxWorker resolves them one chunk at a time, each chunk in its own
+     * transaction, and skips the ones without an account instead of failing the send
+     *
+     * @param dto email details
+     * @param attachments list of files to attach, may be null
+     * @return id of the job, to follow its progress
+     * @throws IOException if file processing fails
+     */
+    @Transactional
+    public Long executeBulk(ComposeEmailDTO dto, List<MultipartFile> attachments) throws IOException {
+        SendTrace trace = sendMetrics.start("bulk", receiverCount(dto), totalSize(attachments));
+        UserIdentity sender = userIdentityCache.find(dto.getSender())
                 .orElseThrow(() -> new RuntimeException("Sender email not found: " + dto.getSender()));
+        trace.stage("resolve_users");
+        List<String> receivers = distinctReceivers(dto.getReceivers());
+        if (receivers.isEmpty()) {
+            throw new IllegalArgumentException("At least one receiver is required");
+        }
+        if (receivers.size() > MAX_BULK_RECEIVERS) {
+            throw new IllegalArgumentException("At most " + MAX_BULK_RECEIVERS + " receivers per bulk send");
+        }
+
+        Mail sentCopy = saveSentCopy(dto, sender, receiverSummary(receivers));
+        trace.stage("sent_copy");
+        List<OutboxAttachment> inboxAttachments = storeAttachments(attachments, sentCopy, receivers.size());
+        trace.stage("attachments");
+        Long jobId = outboxService.enqueue(sentCopy, receivers, inboxAttachments).getId();
+        trace.stage("enqueue");
+        trace.finish();
+        return jobId;
+    }
+
+    private Mail saveSentCopy(ComposeEmailDTO dto, UserIdentity sender, String receiverField) {
+        // Reference only: the ids come from the identity cache, no users query is needed
+        User senderUser = userRepository.getReferenceById(sender.userId());
+        String snippet = Mail.snippetOf(dto.getBody());
+        // Body stored once, shared by the sent copy and every inbox copy
+        MessageContent content = messageContentService.resolve(dto.getSubject(), dto.getBody());
 
-        // Create sent copy
         Mail sentCopy = Mail.builder()
                 .sender(dto.getSender())
                 .senderRel(senderUser)
-                .receiver(String.join(",", dto.getReceivers()))
-                .body(dto.getBody())
-                .subject(dto.getSubject())
+                .receiver(receiverField)
+                .content(content)
+                .snippet(snippet)
+                .subject(content.getSubject())
                 .priority(dto.getPriority())
-                .folderName("SENT")
+                .folderName(MailFolders.SENT)
                 .isRead(true)
                 .timestamp(LocalDateTime.now())
                 .owner(senderUser)  // Set owner for sent copy
                 .build();
 
         mailRepository.save(sentCopy);
+        folderCounterService.mailAdded(senderUser.getUserId(), MailFolders.SENT, true);
+        return sentCopy;
+    }
 
-        // Save attachments for sent copy
-        if (attachments != null && !attachments.isEmpty()) {
-            for (MultipartFile file : attachments) {
-                attachmentService.saveAttachment(file, sentCopy);
-            }
+    /**
+     * Store the files of the sent copy and describe them for the inbox copies
+     * Each file is stored once, with one reference for the sent copy and one per receiver
+     * taken now, so the file stays while the inbox copies wait in the outbox
+     */
+    private List<OutboxAttachment> storeAttachments(List<MultipartFile> attachments, Mail sentCopy,
+                                                    int receiverCount) throws IOException {
+        List<OutboxAttachment> inboxAttachments = new ArrayList<>();
+        if (attachments == null || attachments.isEmpty()) {
+            return inboxAttachments;
         }
+        List<Attachment> rows = new ArrayList<>(attachments.size());
+        for (MultipartFile file : attachments) {
+            AttachmentBlob blob = attachmentBlobService.store(file, 1 + receiverCount);
+            Attachment row = attachmentService.attachmentFor(file, blob, sentCopy);
+            rows.add(row);
+            inboxAttachments.add(new OutboxAttachment(blob.getId(), row.getFileName(), row.getContentType(),
+                    row.getFileSize(), row.getIndexedContent()));
+        }
+        mailBatchRepository.insertAttachments(rows);
+        return inboxAttachments;
+    }
 
-        // Send to all receivers
-        Queue<String> receiverQueue = new LinkedList<>(dto.getReceivers());
-        List<String> failedReceivers = new ArrayList<>();
+    private static int receiverCount(ComposeEmailDTO dto) {
+        return dto.getReceivers() == null ? 0 : dto.getReceivers().size();
+    }
+
+    private static long totalSize(List<MultipartFile> attachments) {
+        return attachments == null ? 0 : attachments.stream().mapToLong(MultipartFile::getSize).sum();
+    }
 
-        while (!receiverQueue.isEmpty()) {
-            String receiverEmail = receiverQueue.poll();
-
-            if (userRepository.findByEmail(receiverEmail).isPresent()) {
-                User receiverUser = userRepository.findByEmail(receiverEmail).get();
-                Mail inboxCopy = Mail.builder()
-                        .sender(dto.getSender())
-                        .senderRel(senderUser)
-                        .receiver(receiverEmail)
-                        .subject(dto.getSubject())
-                        .body(dto.getBody())
-                        .priority(dto.getPriority())
-                        .timestamp(LocalDateTime.now())
-                        .folderName("INBOX")
-                        .isRead(false)
-                        .owner(receiverUser)  // Set owner as receiver for inbox copy
-                        .build();
-
-                mailRepository.save(inboxCopy);
-
-                // Copy attachments for each receiver's inbox copy
-                if (attachments != null && !attachments.isEmpty()) {
-                    for (MultipartFile file : attachments) {
-                        attachmentService.saveAttachment(file, inboxCopy);
-                    }
+    /**
+     * Trimmed receivers in the given order, blanks and duplicates (ignoring case) removed
+     */
+    private static List<String> distinctReceivers(Collection<String> receiverEmails) {
+        Map<String, String> distinct = new LinkedHashMap<>();
+        if (receiverEmails != null) {
+            for (String receiverEmail : receiverEmails) {
+                if (receiverEmail != null && !receiverEmail.isBlank()) {
+                    distinct.putIfAbsent(receiverEmail.trim().toLowerCase(), receiverEmail.trim());
                 }
-            } else {
-                failedReceivers.add(receiverEmail);
             }
         }
+        return new ArrayList<>(distinct.values());
+    }
+
+    /**
+     * Receiver column of a bulk sent copy: the list does not fit, so the first
+     * addresses are kept followed by the number of the others
+     */
+    private static String receiverSummary(List<String> receivers) {
+        StringBuilder summary = new StringBuilder();
+        int shown = 0;
+        for (String receiver : receivers) {
+            String rest = shown == 0 ? receivers.size() + " receivers" : " and " + (receivers.size() - shown) + " more";
+            int separator = shown == 0 ? 0 : 1;
+            if (summary.length() + separator + receiver.length() + rest.length() > RECEIVER_COLUMN_LENGTH) {
+                return summary.append(rest).toString();
+            }
+            if (shown > 0) {
+                summary.append(',');
+            }
+            summary.append(receiver);
+            shown++;
+        }
+        return summary.toString();
+    }
 
+    /**
+     * Resolve all receivers with one users query (cached ones are not queried at all)
+     * A receiver listed twice (ignoring case and surrounding spaces) gets a single inbox copy
+     * @return identities in the order the receivers were given
+     * @throws RuntimeException listing every unknown receiver, before anything is written
+     */
+    private Map<String, UserIdentity> resolveReceivers(Collection<String> receiverEmails) {
+        Map<String, UserIdentity> receivers = new LinkedHashMap<>();
+        List<String> distinct = distinctReceivers(receiverEmails);
+        if (distinct.isEmpty()) {
+            return receivers;
+        }
+        Map<String, UserIdentity> found = userIdentityCache.findAll(distinct);
+        List<String> failedReceivers = new ArrayList<>();
+        for (String receiverEmail : distinct) {
+            UserIdentity receiver = found.get(receiverEmail);
+            if (receiver == null) {
+                failedReceivers.add(receiverEmail);
+            } else {
+                receivers.put(receiverEmail, receiver);
+            }
+        }
         if (!failedReceivers.isEmpty()) {
             throw new RuntimeException("the following receivers were not found: " + String.join(",", failedReceivers));
         }
+        return receivers;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,20 @@
+package eg.edu.alexu.cse.mail_server.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Async request settings for streamed responses (NDJSON export)
+ * The servlet container default (30 seconds on Tomcat) would cut long exports
+ */
+@Configuration
+public class AsyncWebConfig implements WebMvcConfigurer {
+
+    private static final long STREAMING_TIMEOUT_MS = 30 * 60 * 1000L;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(STREAMING_TIMEOUT_MS);
+    }
+}
@@ -7,7 +7,8 @@ import lombok.NoArgsConstructor;
 
 /**
  * DTO for sending attachment data to the frontend
- * Includes file content encoded as Base64 string
+ * Includes file content encoded as Base64 string, or only a download URL
+ * when the mail is opened with attachments by reference
  */
 @Data
 @Builder
@@ -26,7 +27,13 @@ public class AttachmentDTO {
     /**
      * File content encoded as Base64 string
      * Frontend can decode this to display/download the file
+     * Null by reference, except for files under the inline threshold
      */
     private String fileData;
+
+    /**
+     * Relative URL the file can be downloaded from (supports Range requests)
+     */
+    private String downloadUrl;
 }
 
@@ -0,0 +1,19 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Request body of the bulk mailbox operations
+ * Only mails owned by userEmail are affected, other ids are ignored
+ */
+@Data
+public class BulkMailActionDTO {
+    private String userEmail;
+
+    private List<Long> mailIds;
+
+    // Target folder, only used by the bulk move
+    private String folderName;
+}
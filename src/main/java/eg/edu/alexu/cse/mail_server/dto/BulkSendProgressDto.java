@@ -0,0 +1,52 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Progress of a bulk send
+ * Receivers are delivered in chunks of chunkSize, each chunk committed on its own:
+ * processed counts the receivers of committed chunks, delivered + skipped = processed
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkSendProgressDto {
+
+    private Long jobId;
+
+    // PENDING, IN_PROGRESS, DELIVERED or FAILED
+    private String status;
+
+    private int totalReceivers;
+
+    private int processed;
+
+    private int delivered;
+
+    // Receivers without an account, they got no inbox copy
+    private int skipped;
+
+    // The first of them in send order, at most OutboxService.MAX_SKIPPED_LISTED
+    private List<String> skippedReceivers;
+
+    private int chunkSize;
+
+    private int chunksDone;
+
+    private int totalChunks;
+
+    private int attempts;
+
+    private String lastError;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,22 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Unread and total message counts of one folder, used for folder badges
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class FolderSummaryDto {
+
+    private String folderName;
+
+    private long totalCount;
+
+    private long unreadCount;
+}
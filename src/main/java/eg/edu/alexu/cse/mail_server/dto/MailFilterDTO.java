@@ -17,7 +17,7 @@ public class MailFilterDTO {
     private Integer priority;
     private String folder ;
     private Boolean hasAttachments;
-    // Attachment will be added soon
+    private String attachment; // Searched in attachment file names and extracted text
 
     public Long getUserId() {
         return userId;
@@ -122,4 +122,12 @@ public class MailFilterDTO {
     public void setHasAttachments(Boolean hasAttachments) {
         this.hasAttachments = hasAttachments;
     }
-}
\ No newline at end of file
+
+    public String getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(String attachment) {
+        this.attachment = attachment;
+    }
+}
@@ -0,0 +1,34 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Header-only view of a mail for folder listings
+ * Carries a snippet instead of the body and attachment names instead of file data,
+ * the full content is fetched through the single mail endpoint
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MailHeaderDto {
+    private Long id;
+    private String sender;
+    private String receiver;
+    private String subject;
+    private String snippet;
+    private LocalDateTime timestamp;
+    private int priority;
+    @JsonProperty("isRead")
+    private boolean isRead;
+    private String folderName;
+    private int attachmentCount;
+    private List<String> attachmentNames;
+}
@@ -0,0 +1,26 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One page of a folder listing
+ * nextCursor is opaque to the client, it is passed back as-is to get the next page
+ * and is null when there are no more mails
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class MailPageDto {
+
+    private List<MailHeaderDto> mails;
+
+    private String nextCursor;
+
+    private boolean hasMore;
+}
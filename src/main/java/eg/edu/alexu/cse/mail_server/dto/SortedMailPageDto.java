@@ -0,0 +1,31 @@
+package eg.edu.alexu.cse.mail_server.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One page of a folder sorted by sender, subject, date or priority
+ * Pages are numbered from 0, request page + 1 while hasMore is true
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SortedMailPageDto {
+
+    private List<MailHeaderDto> mails;
+
+    private String sortBy;
+
+    private boolean ascending;
+
+    private int page;
+
+    private int size;
+
+    private boolean hasMore;
+}
@@ -0,0 +1,110 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Counts the statements sent to the database, whoever sends them: Hibernate, JdbcTemplate
+ * or plain JDBC. Unlike SqlRecorder (Hibernate only) it sees the JDBC batches of
+ * MailBatchRepository, one executeBatch being one round trip however many rows it carries
+ * Counts are kept per thread. Import this configuration to wrap the application DataSource
+ */
+@TestConfiguration(proxyBeanMethods = false)
+public class JdbcRoundTrips {
+
+    private static final Set<String> EXECUTE_METHODS = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+    private static final ThreadLocal<int[]> ROUND_TRIPS = ThreadLocal.withInitial(() -> new int[2]);
+
+    public static void clear() {
+        ROUND_TRIPS.get()[0] = 0;
+        ROUND_TRIPS.get()[1] = 0;
+    }
+
+    /**
+     * Statements and batches executed by the calling thread since the last clear()
+     */
+    public static int count() {
+        return ROUND_TRIPS.get()[0];
+    }
+
+    /**
+     * Of those, the executeBatch calls
+     */
+    public static int batches() {
+        return ROUND_TRIPS.get()[1];
+    }
+
+    @Bean
+    static BeanPostProcessor countingDataSource() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                return bean instanceof DataSource dataSource ? new CountingDataSource(dataSource) : bean;
+            }
+        };
+    }
+
+    private static final class CountingDataSource extends DelegatingDataSource {
+
+        CountingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return proxy(Connection.class, super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return proxy(Connection.class, super.getConnection(username, password));
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, T target) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            Object result = invoke(target, method, args);
+            if (result instanceof CallableStatement statement) {
+                return proxy(CallableStatement.class, statement);
+            }
+            if (result instanceof PreparedStatement statement) {
+                return proxy(PreparedStatement.class, statement);
+            }
+            if (result instanceof Statement statement && type == Connection.class) {
+                return proxy(Statement.class, statement);
+            }
+            return result;
+        };
+        return type.cast(Proxy.newProxyInstance(JdbcRoundTrips.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        if (target instanceof Statement && EXECUTE_METHODS.contains(method.getName())) {
+            ROUND_TRIPS.get()[0]++;
+            if (method.getName().endsWith("Batch")) {
+                ROUND_TRIPS.get()[1]++;
+            }
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import static eg.edu.alexu.cse.mail_server.TestUsers.user;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Fan-out of inbox copies for 1, 10, 100 and 1000 receivers, before and after MailBatchRepository:
+ * saving the copies through MailRepository (IDENTITY ids, one insert per copy) against one
+ * JDBC batch per BATCH_SIZE copies. Round trips are counted on the DataSource (JdbcRoundTrips)
+ * and asserted, the timings are printed next to them (H2 in memory, so they leave out the
+ * network latency each round trip costs on a real database)
+ */
+@DataJpaTest
+@Import({MailBatchRepository.class, JdbcRoundTrips.class})
+class MailBatchRepositoryTest {
+
+    private static final int[] RECEIVER_COUNTS = {1, 10, 100, 1000};
+
+    @Autowired
+    private MailBatchRepository mailBatchRepository;
+
+    @Autowired
+    private MailRepository mailRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MessageContentRepository messageContentRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private User sender;
+    private List<User> receivers;
+    private MessageContent content;
+
+    @BeforeEach
+    void seed() {
+        sender = userRepository.save(user("sender@batch.test"));
+        receivers = new ArrayList<>();
+        for (int i = 0; i < RECEIVER_COUNTS[RECEIVER_COUNTS.length - 1]; i++) {
+            receivers.add(user("receiver" + i + "@batch.test"));
+        }
+        receivers = userRepository.saveAll(receivers);
+        content = messageContentRepository.save(MessageContent.builder()
+                .contentHash(MessageContent.hashOf("Subject", "Body"))
+                .subject("Subject")
+                .body("Body")
+                .build());
+        entityManager.flush();
+    }
+
+    @Test
+    void batchedFanOutTakesOneRoundTripPerBatch() {
+        List<String> report = new ArrayList<>();
+        for (int count : RECEIVER_COUNTS) {
+            long rowsBefore = mailRepository.count();
+
+            // Before: one insert per inbox copy
+            List<Mail> saved = inboxCopies(count);
+            JdbcRoundTrips.clear();
+            long started = System.nanoTime();
+            mailRepository.saveAll(saved);
+            entityManager.flush();
+            long oneByOneNanos = System.nanoTime() - started;
+            int oneByOne = JdbcRoundTrips.count();
+
+            // After: JDBC batches
+            List<Mail> copies = inboxCopies(count);
+            JdbcRoundTrips.clear();
+            started = System.nanoTime();
+            mailBatchRepository.insertMails(copies);
+            long batchedNanos = System.nanoTime() - started;
+            int batched = JdbcRoundTrips.count();
+
+            int expectedBatches = (count + MailBatchRepository.BATCH_SIZE - 1) / MailBatchRepository.BATCH_SIZE;
+            assertThat(oneByOne).as("round trips saving %d copies one by one", count).isGreaterThanOrEqualTo(count);
+            assertThat(batched).as("round trips of %d batched copies", count).isEqualTo(expectedBatches);
+            assertThat(JdbcRoundTrips.batches()).isEqualTo(expectedBatches);
+            assertThat(copies).allSatisfy(copy -> assertThat(copy.getMailId()).isNotNull());
+            assertThat(copies.stream().map(Mail::getMailId).distinct().count()).isEqualTo(count);
+            assertThat(mailRepository.count()).isEqualTo(rowsBefore + 2L * count);
+
+            report.add(String.format("%5d receivers | one by one: %5d round trips %8.2f ms | batched: %2d round trips %8.2f ms",
+                    count, oneByOne, oneByOneNanos / 1e6, batched, batchedNanos / 1e6));
+        }
+        System.out.println("Inbox copy fan-out, before and after MailBatchRepository:");
+        report.forEach(System.out::println);
+    }
+
+    private List<Mail> inboxCopies(int count) {
+        LocalDateTime now = LocalDateTime.now();
+        List<Mail> copies = new ArrayList<>(count);
+        for (User receiver : receivers.subList(0, count)) {
+            copies.add(Mail.builder()
+                    .sender(sender.getEmail())
+                    .senderRel(sender)
+                    .receiver(receiver.getEmail())
+                    .owner(receiver)
+                    .content(content)
+                    .subject(content.getSubject())
+                    .snippet(Mail.snippetOf(content.getBody()))
+                    .folderName(MailFolders.INBOX)
+                    .timestamp(now)
+                    .build());
+        }
+        return copies;
+    }
+}
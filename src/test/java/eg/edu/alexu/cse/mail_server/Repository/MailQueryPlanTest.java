@@ -0,0 +1,362 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Query-plan regression harness for the MailRepository queries
+ * Each query runs against a seeded H2 mailbox, the SQL Hibernate generated for it is
+ * captured (SqlRecorder) and EXPLAINed, and the plan must read the mail table through
+ * one of the expected indexes. A full scan of mail fails the test
+ * Every query declared on MailRepository is either EXPLAINed here (EXPLAINED) or listed
+ * in NOT_EXPLAINED with the reason, so a new query cannot be added without a plan check
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "eg.edu.alexu.cse.mail_server.Repository.SqlRecorder")
+class MailQueryPlanTest {
+
+    private static final String FOLDER_INDEX = "IDX_MAIL_OWNER_FOLDER_TS";
+    // All Mail may use either owner index, both avoid a scan and a sort of the whole mailbox
+    private static final String OWNER_INDEX = "IDX_MAIL_OWNER_";
+    private static final String TRASH_INDEX = "IDX_MAIL_FOLDER_DELETED_AT";
+    // Sorted views may use the index of their sort key or the folder index
+    private static final String OWNER_FOLDER_INDEX = "IDX_MAIL_OWNER_FOLDER_";
+    // H2 names the primary key index PRIMARY_KEY_<n>
+    private static final String PRIMARY_KEY = "PRIMARY_KEY_";
+    // H2 prints "/* PUBLIC.MAIL.tableScan */" for a full scan
+    private static final Pattern MAIL_SCAN = Pattern.compile("\\bMAIL\\.TABLESCAN\\b");
+
+    private static final int OWNERS = 4;
+    // Past H2's automatic ANALYZE threshold, so the plans are chosen with statistics
+    private static final int MAILS_PER_OWNER = 600;
+
+    // Queries with a test below
+    private static final Set<String> EXPLAINED = Set.of(
+            "findFolderPage(Long, String, Pageable)",
+            "findFolderPageAfter(Long, String, LocalDateTime, Long, Pageable)",
+            "findFolderSorted(Long, String, Pageable)",
+            "findByOwnerIdAndFolderNameOrderByTimestampDesc(Long, String)",
+            "findByOwnerIdAndFolderName(Long, String)",
+            "findByOwnerIdAndFolderName(Long, String, Pageable)",
+            "findAllMailPage(Long, Pageable)",
+            "findAllMailPageAfter(Long, LocalDateTime, Long, Pageable)",
+            "findAllMailSorted(Long, Pageable)",
+            "findAllByOwnerIdExcludingDraftsAndTrash(Long)",
+            "streamAllMailByOwnerId(Long)",
+            "findByFolderNameAndDeletedAtBefore(String, LocalDateTime)",
+            "findWithContentByMailId(Long)",
+            "findByMailIdAndOwnerId(Long, Long)",
+            "findOwnedIds(Long, Collection)",
+            "countOwned(Long, Collection)",
+            "countReadFlagChanges(Long, Collection, boolean)",
+            "countOutsideFolder(Long, Collection, String)",
+            "updateReadFlag(Long, Collection, boolean)",
+            "moveToFolder(Long, Collection, String, LocalDateTime)",
+            "deleteReceiverLinks(Long, Collection)",
+            "deleteOwned(Long, Collection)",
+            "updateDraft(Long, String, MessageContent, String, String, int, LocalDateTime)",
+            "findBySnippetIsNullAndMailIdGreaterThanOrderByMailIdAsc(Long, Pageable)",
+            "findByContentIsNullAndMailIdGreaterThanOrderByMailIdAsc(Long, Pageable)");
+
+    // Queries that are not EXPLAINed, and why
+    private static final Map<String, String> NOT_EXPLAINED = Map.ofEntries(
+            Map.entry("findAllByUserId(Long)",
+                    "filter search: sender OR any receiver link, no single index can serve the OR across the join;"
+                            + " runs once per search request, not per listing"),
+            Map.entry("findByReceiverOrSenderOrderByTimestampDesc(String, String)",
+                    "no caller; receiver and sender are not indexed, listings go by owner"),
+            Map.entry("findByReceiverOrSenderExcludingDraftsAndTrashOrderByTimestampDesc(String)",
+                    "no caller; replaced by findAllByOwnerIdExcludingDraftsAndTrash"),
+            Map.entry("findByReceiverAndFolderName(String, String)", "no caller; listings go by owner"),
+            Map.entry("findBySenderAndFolderName(String, String)", "no caller; listings go by owner"),
+            Map.entry("findBySenderAndFolderNameOrderByTimestampDesc(String, String)", "no caller; listings go by owner"),
+            Map.entry("findByReceiverAndSubjectContainingIgnoreCase(String, String)",
+                    "no caller; a contains match cannot use an index anyway"),
+            Map.entry("findByReceiverAndSenderContainingIgnoreCase(String, String)",
+                    "no caller; a contains match cannot use an index anyway"),
+            Map.entry("findByReceiver(String)", "no caller; listings go by owner"),
+            Map.entry("countByOwnerAndFolder()",
+                    "rebuilds every folder counter, reads the whole table by design (startup and repair only)"),
+            Map.entry("findDistinctFolderNames()",
+                    "folder name normalization at startup, reads the whole table by design"),
+            Map.entry("renameFolderEverywhere(String, String)",
+                    "folder name normalization at startup, only runs for names found by findDistinctFolderNames"));
+
+    @Autowired
+    private MailRepository mailRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Long ownerId;
+
+    @BeforeEach
+    void seed() {
+        LocalDateTime start = LocalDateTime.now().minusDays(30);
+        List<Mail> mails = new ArrayList<>();
+        for (int o = 0; o < OWNERS; o++) {
+            User owner = userRepository.save(User.builder()
+                    .firstName("Owner")
+                    .lastName(String.valueOf(o))
+                    .email("owner" + o + "@mail.test")
+                    .password("secret")
+                    .build());
+            if (o == 0) {
+                ownerId = owner.getUserId();
+            }
+            for (int i = 0; i < MAILS_PER_OWNER; i++) {
+                String folder = folderFor(i);
+                mails.add(Mail.builder()
+                        .sender("someone@mail.test")
+                        .senderRel(owner)
+                        .owner(owner)
+                        .receiver(owner.getEmail())
+                        .subject("Subject " + i)
+                        .snippet("Body " + i)
+                        .folderName(folder)
+                        .timestamp(start.plusMinutes((long) i * OWNERS + o))
+                        .deletedAt(folder.equals(MailFolders.TRASH) ? start.plusDays(1) : null)
+                        .build());
+            }
+        }
+        mailRepository.saveAll(mails);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    // Mostly inbox, then sent, a custom folder, drafts and a little trash
+    private static String folderFor(int i) {
+        return switch (i % 12) {
+            case 0, 1, 2, 3, 4, 5 -> MailFolders.INBOX;
+            case 6, 7, 8 -> MailFolders.SENT;
+            case 9 -> "WORK";
+            case 10 -> MailFolders.DRAFTS;
+            default -> MailFolders.TRASH;
+        };
+    }
+
+    @Test
+    void folderPageUsesFolderIndex() {
+        assertPlans(FOLDER_INDEX, () -> mailRepository.findFolderPage(ownerId, MailFolders.INBOX, PageRequest.of(0, 20)));
+    }
+
+    @Test
+    void folderKeysetPageUsesFolderIndex() {
+        assertPlans(FOLDER_INDEX, () -> mailRepository.findFolderPageAfter(ownerId, MailFolders.INBOX,
+                LocalDateTime.now().minusDays(10), 1000L, PageRequest.of(0, 20)));
+    }
+
+    @Test
+    void sortedFolderPageUsesFolderIndex() {
+        assertPlans(FOLDER_INDEX, () -> mailRepository.findFolderSorted(ownerId, MailFolders.INBOX,
+                PageRequest.of(0, 20, Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("mailId")))));
+    }
+
+    @Test
+    void fullFolderListingUsesFolderIndex() {
+        assertPlans(FOLDER_INDEX, () -> mailRepository.findByOwnerIdAndFolderNameOrderByTimestampDesc(ownerId, "WORK"));
+    }
+
+    @Test
+    void allMailPageUsesOwnerIndex() {
+        assertPlans(OWNER_INDEX, () -> mailRepository.findAllMailPage(ownerId, PageRequest.of(0, 20)));
+    }
+
+    @Test
+    void allMailKeysetPageUsesOwnerIndex() {
+        assertPlans(OWNER_INDEX, () -> mailRepository.findAllMailPageAfter(ownerId,
+                LocalDateTime.now().minusDays(10), 1000L, PageRequest.of(0, 20)));
+    }
+
+    @Test
+    void sortedAllMailPageUsesOwnerIndex() {
+        assertPlans(OWNER_INDEX, () -> mailRepository.findAllMailSorted(ownerId,
+                PageRequest.of(0, 20, Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("mailId")))));
+    }
+
+    @Test
+    void allMailListingUsesOwnerIndex() {
+        assertPlans(OWNER_INDEX, () -> mailRepository.findAllByOwnerIdExcludingDraftsAndTrash(ownerId));
+    }
+
+    @Test
+    void allMailExportUsesOwnerIndex() {
+        assertPlans(OWNER_INDEX, () -> {
+            try (Stream<Mail> mails = mailRepository.streamAllMailByOwnerId(ownerId)) {
+                mails.findFirst();
+            }
+        });
+    }
+
+    @Test
+    void sortedEntityPageUsesFolderIndexes() {
+        assertPlans(OWNER_FOLDER_INDEX, () -> mailRepository.findByOwnerIdAndFolderName(ownerId, MailFolders.INBOX,
+                PageRequest.of(0, 20, Sort.by(Sort.Order.asc("subject"), Sort.Order.desc("timestamp"),
+                        Sort.Order.desc("mailId")))));
+    }
+
+    @Test
+    void unsortedFolderListingUsesFolderIndexes() {
+        assertPlans(OWNER_FOLDER_INDEX, () -> mailRepository.findByOwnerIdAndFolderName(ownerId, MailFolders.TRASH));
+    }
+
+    @Test
+    void detailLookupsUsePrimaryKey() {
+        Long mailId = someMailId();
+        assertPlans(PRIMARY_KEY, () -> mailRepository.findWithContentByMailId(mailId));
+        assertPlans(PRIMARY_KEY, () -> mailRepository.findByMailIdAndOwnerId(mailId, ownerId));
+    }
+
+    // Bulk operations select by id, both the primary key and an owner index avoid a scan
+    @Test
+    void bulkReadsUseIndexes() {
+        List<Long> mailIds = someMailIds();
+        assertPlans(() -> mailRepository.findOwnedIds(ownerId, mailIds), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.countOwned(ownerId, mailIds), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.countReadFlagChanges(ownerId, mailIds, true), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.countOutsideFolder(ownerId, mailIds, MailFolders.TRASH),
+                PRIMARY_KEY, OWNER_INDEX);
+    }
+
+    @Test
+    void bulkWritesUseIndexes() {
+        List<Long> mailIds = someMailIds();
+        assertPlans(() -> mailRepository.updateReadFlag(ownerId, mailIds, true), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.moveToFolder(ownerId, mailIds, "ARCHIVE", null), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.deleteReceiverLinks(ownerId, mailIds), PRIMARY_KEY, OWNER_INDEX);
+        assertPlans(() -> mailRepository.deleteOwned(ownerId, mailIds), PRIMARY_KEY, OWNER_INDEX);
+    }
+
+    @Test
+    void draftWriteUsesPrimaryKey() {
+        Long mailId = someMailId();
+        assertPlans(PRIMARY_KEY, () -> mailRepository.updateDraft(mailId, "someone@mail.test", null,
+                "Subject", "Body", 1, LocalDateTime.now()));
+    }
+
+    @Test
+    void backfillBatchesUsePrimaryKey() {
+        assertPlans(PRIMARY_KEY, () -> mailRepository.findBySnippetIsNullAndMailIdGreaterThanOrderByMailIdAsc(0L,
+                PageRequest.of(0, 500)));
+        assertPlans(PRIMARY_KEY, () -> mailRepository.findByContentIsNullAndMailIdGreaterThanOrderByMailIdAsc(0L,
+                PageRequest.of(0, 500)));
+    }
+
+    @Test
+    void everyQueryIsExplainedOrExcluded() {
+        Set<String> declared = Arrays.stream(MailRepository.class.getDeclaredMethods())
+                .filter(method -> !method.isDefault() && !method.isSynthetic())
+                .map(MailQueryPlanTest::signature)
+                .collect(Collectors.toSet());
+        assertThat(declared).as("MailRepository queries without a plan check or a reason in NOT_EXPLAINED")
+                .allMatch(query -> EXPLAINED.contains(query) || NOT_EXPLAINED.containsKey(query));
+        assertThat(declared).as("stale entries").containsAll(EXPLAINED).containsAll(NOT_EXPLAINED.keySet());
+    }
+
+    private static String signature(Method method) {
+        return method.getName() + Arrays.stream(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+
+    private Long someMailId() {
+        return mailRepository.findFolderPage(ownerId, MailFolders.DRAFTS, PageRequest.of(0, 1)).get(0).getMailId();
+    }
+
+    private List<Long> someMailIds() {
+        return mailRepository.findFolderPage(ownerId, MailFolders.INBOX, PageRequest.of(0, 5)).stream()
+                .map(MailHeaderView::getMailId)
+                .toList();
+    }
+
+    @Test
+    void trashCleanupUsesDeletedAtIndex() {
+        assertPlans(TRASH_INDEX, () -> mailRepository.findByFolderNameAndDeletedAtBefore(MailFolders.TRASH,
+                LocalDateTime.now()));
+    }
+
+    private void assertPlans(String expectedIndex, Runnable query) {
+        assertPlans(query, expectedIndex);
+    }
+
+    /**
+     * Run the query, then EXPLAIN every statement it sent that reads or writes the mail table
+     * Each plan must use one of the expected indexes (prefixes of the index name)
+     */
+    private void assertPlans(Runnable query, String... expectedIndexes) {
+        SqlRecorder.clear();
+        query.run();
+        List<String> mailStatements = SqlRecorder.statements().stream()
+                .filter(sql -> Stream.of("select", "update", "delete")
+                        .anyMatch(sql.toLowerCase(Locale.ROOT)::startsWith))
+                .filter(sql -> sql.toLowerCase(Locale.ROOT).contains(" mail "))
+                .toList();
+        assertThat(mailStatements).as("statements on mail").isNotEmpty();
+        for (String sql : mailStatements) {
+            String plan = explain(sql).toUpperCase(Locale.ROOT);
+            assertThat(MAIL_SCAN.matcher(plan).find()).as("full scan of mail in plan:%n%s", plan).isFalse();
+            assertThat(plan).as("plan of %s", sql)
+                    .containsAnyOf(Arrays.stream(expectedIndexes).map(index -> "PUBLIC." + index).toArray(String[]::new));
+        }
+    }
+
+    // Parameters are bound to NULL: the plan is chosen when the statement is prepared, not from the values
+    private String explain(String sql) {
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setNull(i, Types.NULL);
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    plan.append(result.getString(1)).append('\n');
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            throw new IllegalStateException("EXPLAIN failed for " + sql, e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+}
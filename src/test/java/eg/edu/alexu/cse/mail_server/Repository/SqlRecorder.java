@@ -0,0 +1,35 @@
+package eg.edu.alexu.cse.mail_server.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Records the SQL statements Hibernate prepares, for tests that inspect
+ * query plans or count the statements of an operation
+ * Statements are kept per thread, so background workers (outbox, schedulers)
+ * do not show up in the statements of the test thread
+ * Registered with spring.jpa.properties.hibernate.session_factory.statement_inspector
+ */
+public class SqlRecorder implements StatementInspector {
+
+    private static final ThreadLocal<List<String>> STATEMENTS = ThreadLocal.withInitial(ArrayList::new);
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.get().add(sql);
+        return sql;
+    }
+
+    public static void clear() {
+        STATEMENTS.get().clear();
+    }
+
+    /**
+     * Statements prepared by the calling thread since the last clear()
+     */
+    public static List<String> statements() {
+        return new ArrayList<>(STATEMENTS.get());
+    }
+}
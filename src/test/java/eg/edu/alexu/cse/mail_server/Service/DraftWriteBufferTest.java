@@ -0,0 +1,109 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import static eg.edu.alexu.cse.mail_server.TestUsers.user;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
+import eg.edu.alexu.cse.mail_server.dto.MailHeaderDto;
+
+/**
+ * Draft edits are buffered, but every read and change of the draft sees the latest one:
+ * reading it by id, listing the drafts folder and moving it to trash write the buffered
+ * version first
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:drafts;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class DraftWriteBufferTest {
+
+    private static final String OWNER = "owner@drafts.test";
+
+    @Autowired
+    private MailService mailService;
+
+    @Autowired
+    private DraftWriteBuffer draftWriteBuffer;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RecipientFilter recipientFilter;
+
+    private User owner;
+
+    @BeforeAll
+    void seedUser() {
+        owner = userRepository.save(user(OWNER));
+        // Users saved here bypass registration, the filter would reject them
+        recipientFilter.build();
+    }
+
+    @Test
+    void readByIdSeesTheLatestEdit() {
+        Long draftId = mailService.draft(compose("First", "first@drafts.test"));
+        mailService.updateDraft(draftId, compose("Second", "second@drafts.test"));
+        mailService.updateDraft(draftId, compose("Third", "third@drafts.test"));
+
+        Mail draft = mailService.getMailById(draftId);
+
+        assertThat(draft.getSubject()).isEqualTo("Third");
+        assertThat(draft.getBody()).isEqualTo("Body of Third");
+        assertThat(draft.getReceiver()).isEqualTo("third@drafts.test");
+        // Written, nothing left in the buffer
+        assertThat(draftWriteBuffer.pendingOwner(draftId)).isNull();
+    }
+
+    @Test
+    void draftsListingSeesTheLatestEdit() {
+        Long draftId = mailService.draft(compose("Listed", "someone@drafts.test"));
+        mailService.updateDraft(draftId, compose("Listed and edited", "someone@drafts.test"));
+
+        List<MailHeaderDto> drafts = mailService.getDraftMails(OWNER, null, null).getMails();
+
+        assertThat(drafts).filteredOn(header -> header.getId().equals(draftId))
+                .singleElement()
+                .satisfies(header -> {
+                    assertThat(header.getSubject()).isEqualTo("Listed and edited");
+                    assertThat(header.getSnippet()).isEqualTo("Body of Listed and edited");
+                });
+    }
+
+    @Test
+    void editIsKeptWhenTheDraftIsTrashed() {
+        Long draftId = mailService.draft(compose("Before trash", "someone@drafts.test"));
+        mailService.updateDraft(draftId, compose("Edited before trash", "someone@drafts.test"));
+
+        // The edit is only written while the mail is a draft, so trashing must write it first
+        mailService.deleteMail(draftId, owner.getUserId());
+
+        Mail trashed = mailService.getMailById(draftId);
+        assertThat(trashed.getFolderName()).isEqualTo(MailFolders.TRASH);
+        assertThat(trashed.getSubject()).isEqualTo("Edited before trash");
+        assertThat(trashed.getBody()).isEqualTo("Body of Edited before trash");
+    }
+
+    private static ComposeEmailDTO compose(String subject, String receiver) {
+        ComposeEmailDTO dto = new ComposeEmailDTO();
+        dto.setSender(OWNER);
+        dto.setReceivers(List.of(receiver));
+        dto.setSubject(subject);
+        dto.setBody("Body of " + subject);
+        dto.setPriority(1);
+        return dto;
+    }
+}
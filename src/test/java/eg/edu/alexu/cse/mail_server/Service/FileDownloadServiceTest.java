@@ -0,0 +1,162 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import eg.edu.alexu.cse.mail_server.Service.FileDownloadService.ByteRange;
+
+/**
+ * Range handling of attachment downloads: header parsing, single and multiple ranges,
+ * unsatisfiable ranges and If-Range
+ * Mock requests do not offer sendfile, so the bodies go through FileChannel.transferTo
+ */
+class FileDownloadServiceTest {
+
+    private static final int SIZE = 1000;
+    private static final String TYPE = "application/pdf";
+    private static final String DISPOSITION = "inline; filename=\"file.pdf\"";
+    private static final String ETAG = "\"abc123\"";
+
+    private final FileDownloadService service = new FileDownloadService();
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private byte[] content;
+
+    @BeforeEach
+    void writeFile() throws IOException {
+        content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        file = Files.write(directory.resolve("file.pdf"), content);
+    }
+
+    @Test
+    void parsesClosedOpenAndSuffixRanges() {
+        assertThat(FileDownloadService.parseRanges("bytes=0-99", SIZE)).containsExactly(new ByteRange(0, 99));
+        assertThat(FileDownloadService.parseRanges("bytes=900-", SIZE)).containsExactly(new ByteRange(900, 999));
+        assertThat(FileDownloadService.parseRanges("bytes=-50", SIZE)).containsExactly(new ByteRange(950, 999));
+        assertThat(FileDownloadService.parseRanges("bytes=0-9, 20-29", SIZE))
+                .containsExactly(new ByteRange(0, 9), new ByteRange(20, 29));
+    }
+
+    @Test
+    void clipsRangesToTheFile() {
+        assertThat(FileDownloadService.parseRanges("bytes=990-5000", SIZE)).containsExactly(new ByteRange(990, 999));
+        assertThat(FileDownloadService.parseRanges("bytes=-5000", SIZE)).containsExactly(new ByteRange(0, 999));
+    }
+
+    @Test
+    void unsatisfiableRangesGiveAnEmptyList() {
+        assertThat(FileDownloadService.parseRanges("bytes=1000-1100", SIZE)).isEmpty();
+        assertThat(FileDownloadService.parseRanges("bytes=-0", SIZE)).isEmpty();
+        // The satisfiable ones are kept
+        assertThat(FileDownloadService.parseRanges("bytes=2000-,0-0", SIZE)).containsExactly(new ByteRange(0, 0));
+    }
+
+    @Test
+    void malformedHeadersAreIgnored() {
+        assertThat(FileDownloadService.parseRanges("items=0-9", SIZE)).isNull();
+        assertThat(FileDownloadService.parseRanges("bytes=9-0", SIZE)).isNull();
+        assertThat(FileDownloadService.parseRanges("bytes=a-b", SIZE)).isNull();
+        assertThat(FileDownloadService.parseRanges("bytes=10", SIZE)).isNull();
+        String tooMany = "bytes=" + String.join(",", Collections.nCopies(17, "0-1"));
+        assertThat(FileDownloadService.parseRanges(tooMany, SIZE)).isNull();
+    }
+
+    @Test
+    void withoutRangeSendsTheWholeFile() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest());
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    @Test
+    void singleRangeGivesPartialContent() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=100-199");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 100-199/" + SIZE);
+        assertThat(response.getContentType()).isEqualTo(TYPE);
+        assertThat(response.getContentLengthLong()).isEqualTo(100);
+        assertThat(response.getContentAsByteArray()).isEqualTo(Arrays.copyOfRange(content, 100, 200));
+    }
+
+    @Test
+    void severalRangesGiveMultipartByteranges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-4,-5");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentType()).startsWith("multipart/byteranges; boundary=");
+        String body = response.getContentAsString(StandardCharsets.US_ASCII);
+        assertThat(body).contains("Content-Range: bytes 0-4/" + SIZE + "\r\n\r\n"
+                + new String(content, 0, 5, StandardCharsets.US_ASCII));
+        assertThat(body).contains("Content-Range: bytes 995-999/" + SIZE + "\r\n\r\n"
+                + new String(content, 995, 5, StandardCharsets.US_ASCII));
+        assertThat(response.getContentLengthLong()).isEqualTo(response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void rangePastTheEndIsNotSatisfiable() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=5000-6000");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + SIZE);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void ifRangeWithTheCurrentEtagKeepsTheRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+
+        assertThat(serve(request).getStatus()).isEqualTo(206);
+    }
+
+    @Test
+    void ifRangeWithAnOldEtagSendsTheWholeFile() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader(HttpHeaders.RANGE, "bytes=0-9");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"old\"");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsByteArray()).isEqualTo(content);
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request, response, file, TYPE, DISPOSITION, ETAG);
+        return response;
+    }
+}
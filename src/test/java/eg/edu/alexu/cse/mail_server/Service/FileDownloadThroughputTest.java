@@ -0,0 +1,152 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.UrlResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpResponse;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Download throughput before and after FileDownloadService, over a real Tomcat connector
+ * Before: the ResponseEntity<UrlResource> the controller used to return, copied by
+ * ResourceHttpMessageConverter through an 8 KB heap buffer. After: FileDownloadService.serve,
+ * which hands the file to Tomcat's sendfile
+ * Both are fetched over loopback and must send the same bytes; the times are printed,
+ * not asserted (they depend on the machine)
+ */
+class FileDownloadThroughputTest {
+
+    private static final int SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+    private static final String TYPE = "application/pdf";
+    private static final String DISPOSITION = "inline; filename=\"large.pdf\"";
+
+    private final FileDownloadService service = new FileDownloadService();
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private byte[] fileSha256;
+    private Tomcat tomcat;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException, LifecycleException {
+        byte[] content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        file = Files.write(directory.resolve("large.pdf"), content);
+        fileSha256 = sha256().digest(content);
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(directory.resolve("tomcat").toString());
+        tomcat.setPort(0);
+        Context context = tomcat.addContext("", directory.toString());
+        Tomcat.addServlet(context, "before", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                // What returning ResponseEntity.ok().body(fileStorageService.loadFileAsResource(path)) did
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, DISPOSITION);
+                new ResourceHttpMessageConverter().write(new UrlResource(file.toUri()),
+                        MediaType.parseMediaType(TYPE), new ServletServerHttpResponse(response));
+            }
+        });
+        Tomcat.addServlet(context, "after", new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                service.serve(request, response, file, TYPE, DISPOSITION, null);
+            }
+        });
+        context.addServletMappingDecoded("/before", "before");
+        context.addServletMappingDecoded("/after", "after");
+        tomcat.getConnector();
+        tomcat.start();
+        port = tomcat.getConnector().getLocalPort();
+    }
+
+    @AfterEach
+    void stop() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    @Test
+    void sendfileDownloadMatchesTheOldPath() throws Exception {
+        // Warm up both paths (class loading, JIT, page cache)
+        download("/before");
+        download("/after");
+
+        List<String> report = new ArrayList<>();
+        for (String path : List.of("/before", "/after")) {
+            long nanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long started = System.nanoTime();
+                download(path);
+                nanos += System.nanoTime() - started;
+            }
+            double seconds = nanos / 1e9;
+            report.add(String.format("%-7s | %d x %d MB in %6.2f s | %8.1f MB/s", path, ROUNDS, SIZE >> 20,
+                    seconds, (double) ROUNDS * SIZE / (1 << 20) / seconds));
+        }
+        System.out.println("Attachment download throughput, before and after FileDownloadService:");
+        report.forEach(System.out::println);
+    }
+
+    /**
+     * Fetch the whole file and check it arrived intact
+     */
+    private void download(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET().build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        assertThat(response.statusCode()).as("status of %s", path).isEqualTo(200);
+
+        MessageDigest digest = sha256();
+        long received = 0;
+        try (InputStream body = response.body()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                received += read;
+            }
+        }
+        assertThat(received).as("bytes of %s", path).isEqualTo(SIZE);
+        assertThat(digest.digest()).as("content of %s", path).isEqualTo(fileSha256);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
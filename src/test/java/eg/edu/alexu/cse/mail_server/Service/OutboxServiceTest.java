@@ -0,0 +1,278 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import static eg.edu.alexu.cse.mail_server.TestUsers.user;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import eg.edu.alexu.cse.mail_server.Entity.Mail;
+import eg.edu.alexu.cse.mail_server.Entity.MailFolders;
+import eg.edu.alexu.cse.mail_server.Entity.MailOutbox;
+import eg.edu.alexu.cse.mail_server.Entity.MessageContent;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.MailBatchRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MessageContentRepository;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.dto.BulkSendProgressDto;
+
+/**
+ * Outbox delivery driven by hand, batch by batch: a retry resumes after the last committed
+ * batch and delivers every receiver once, a claim is only taken back once its lease expired,
+ * and the progress of a bulk send counts the receivers skipped in every batch
+ * OutboxWorker is replaced by a mock, so no background delivery competes with the test
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:outbox;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class OutboxServiceTest {
+
+    private static final String SENDER = "sender@outbox.test";
+    private static final String WORKER = "worker-a";
+    private static final String OTHER_WORKER = "worker-b";
+    // More than two delivery batches
+    private static final int USERS = OutboxService.DELIVERY_BATCH_SIZE * 2 + 50;
+
+    @MockitoBean
+    private OutboxWorker outboxWorker;
+
+    @Autowired
+    private OutboxService outboxService;
+
+    @Autowired
+    private MailOutboxRepository mailOutboxRepository;
+
+    @Autowired
+    private MailBatchRepository mailBatchRepository;
+
+    @Autowired
+    private MailRepository mailRepository;
+
+    @Autowired
+    private MessageContentRepository messageContentRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RecipientFilter recipientFilter;
+
+    private User sender;
+
+    @BeforeAll
+    void seedUsers() {
+        List<User> users = new ArrayList<>();
+        IntStream.range(0, USERS).forEach(i -> users.add(user(receiver(i))));
+        userRepository.saveAll(users);
+        sender = userRepository.save(user(SENDER));
+        // Users saved here bypass registration, the filter would reject them
+        recipientFilter.build();
+    }
+
+    @Test
+    void retryResumesAfterTheLastCommittedBatch() {
+        List<String> receivers = receivers(0, USERS);
+        MailOutbox entry = entry("resume", receivers);
+
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        OutboxService.BatchResult first = outboxService.deliverNextBatch(entry.getId(), WORKER);
+        assertThat(first.done()).isFalse();
+        assertThat(first.receivers()).isEqualTo(OutboxService.DELIVERY_BATCH_SIZE);
+
+        // The second batch failed and rolled back: the entry is rescheduled with its progress
+        assertThat(outboxService.recordFailure(entry.getId(), WORKER, "connection reset")).isFalse();
+        MailOutbox failed = reload(entry);
+        assertThat(failed.getStatus()).isEqualTo(MailOutbox.Status.PENDING);
+        assertThat(failed.getAttempts()).isEqualTo(1);
+        assertThat(failed.getLastError()).isEqualTo("connection reset");
+        assertThat(failed.getNextAttemptAt()).isAfter(LocalDateTime.now());
+        assertThat(failed.getDeliveredCount()).isEqualTo(OutboxService.DELIVERY_BATCH_SIZE);
+        assertThat(failed.getClaimedBy()).isNull();
+
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        OutboxService.BatchResult result;
+        int batches = 0;
+        do {
+            result = outboxService.deliverNextBatch(entry.getId(), WORKER);
+            batches++;
+        } while (!result.done());
+        assertThat(batches).isEqualTo(2);
+
+        MailOutbox delivered = reload(entry);
+        assertThat(delivered.getStatus()).isEqualTo(MailOutbox.Status.DELIVERED);
+        assertThat(delivered.getDeliveredCount()).isEqualTo(USERS);
+        assertThat(delivered.getDeliveredAt()).isNotNull();
+        assertThat(delivered.getClaimedBy()).isNull();
+        // Every receiver got exactly one inbox copy
+        assertThat(inboxCopiesPerReceiver("resume")).hasSize(USERS).allSatisfy((receiver, copies) ->
+                assertThat(copies).as("inbox copies of %s", receiver).isEqualTo(1L));
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        MailOutbox entry = entry("give-up", receivers(0, 1));
+        for (int attempt = 1; attempt < OutboxService.MAX_ATTEMPTS; attempt++) {
+            assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+            assertThat(outboxService.recordFailure(entry.getId(), WORKER, "attempt " + attempt)).isFalse();
+        }
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        assertThat(outboxService.recordFailure(entry.getId(), WORKER, "last attempt")).isTrue();
+
+        MailOutbox failed = reload(entry);
+        assertThat(failed.getStatus()).isEqualTo(MailOutbox.Status.FAILED);
+        assertThat(failed.getAttempts()).isEqualTo(OutboxService.MAX_ATTEMPTS);
+        assertThat(outboxService.claim(entry.getId(), WORKER)).as("claim of a failed entry").isFalse();
+    }
+
+    @Test
+    void liveClaimIsNotReleasedAndCannotBeClaimedTwice() {
+        MailOutbox entry = entry("live-claim", receivers(0, 1));
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        assertThat(outboxService.claim(entry.getId(), OTHER_WORKER)).isFalse();
+
+        outboxService.releaseExpiredClaims();
+
+        MailOutbox claimed = reload(entry);
+        assertThat(claimed.getStatus()).isEqualTo(MailOutbox.Status.IN_PROGRESS);
+        assertThat(claimed.getClaimedBy()).isEqualTo(WORKER);
+        assertThat(outboxService.deliverNextBatch(entry.getId(), WORKER).done()).isTrue();
+    }
+
+    @Test
+    void expiredClaimIsTakenOverAndTheOldWorkerStops() {
+        MailOutbox entry = entry("expired-claim", receivers(0, OutboxService.DELIVERY_BATCH_SIZE + 1));
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        long claimedVersion = reload(entry).getVersion();
+        outboxService.deliverNextBatch(entry.getId(), WORKER);
+
+        // The instance of WORKER stopped renewing its claim
+        MailOutbox stale = reload(entry);
+        stale.setClaimedAt(LocalDateTime.now().minus(OutboxService.CLAIM_LEASE).minusMinutes(1));
+        mailOutboxRepository.save(stale);
+        outboxService.releaseExpiredClaims();
+
+        MailOutbox released = reload(entry);
+        assertThat(released.getStatus()).isEqualTo(MailOutbox.Status.PENDING);
+        assertThat(released.getClaimedBy()).isNull();
+        assertThat(released.getVersion()).isGreaterThan(claimedVersion);
+
+        assertThat(outboxService.claim(entry.getId(), OTHER_WORKER)).isTrue();
+        assertThatThrownBy(() -> outboxService.deliverNextBatch(entry.getId(), WORKER))
+                .isInstanceOf(OutboxService.ClaimLostException.class);
+        assertThatThrownBy(() -> outboxService.recordFailure(entry.getId(), WORKER, "late failure"))
+                .isInstanceOf(OutboxService.ClaimLostException.class);
+
+        assertThat(outboxService.deliverNextBatch(entry.getId(), OTHER_WORKER).done()).isTrue();
+        assertThat(reload(entry).getAttempts()).as("failure of the old worker not recorded").isZero();
+        assertThat(inboxCopiesPerReceiver("expired-claim")).hasSize(OutboxService.DELIVERY_BATCH_SIZE + 1)
+                .allSatisfy((receiver, copies) -> assertThat(copies).isEqualTo(1L));
+    }
+
+    @Test
+    void bulkSendProgressCountsSkippedReceiversPerBatch() {
+        // 100 users, then more unknown addresses than the progress lists
+        int known = 100;
+        int unknown = OutboxService.MAX_SKIPPED_LISTED + 50;
+        List<String> receivers = new ArrayList<>(receivers(0, known));
+        List<String> unknownReceivers = IntStream.range(0, unknown).mapToObj(i -> "nobody" + i + "@outbox.test").toList();
+        receivers.addAll(unknownReceivers);
+        MailOutbox entry = entry("bulk", receivers);
+
+        BulkSendProgressDto queued = outboxService.getProgress(entry.getId(), SENDER);
+        assertThat(queued.getStatus()).isEqualTo("PENDING");
+        assertThat(queued.getTotalReceivers()).isEqualTo(known + unknown);
+        assertThat(queued.getProcessed()).isZero();
+        assertThat(queued.getSkippedReceivers()).isEmpty();
+        assertThat(queued.getTotalChunks()).isEqualTo(2);
+
+        assertThat(outboxService.claim(entry.getId(), WORKER)).isTrue();
+        outboxService.deliverNextBatch(entry.getId(), WORKER);
+        BulkSendProgressDto halfway = outboxService.getProgress(entry.getId(), SENDER);
+        int firstBatchSkipped = OutboxService.DELIVERY_BATCH_SIZE - known;
+        assertThat(halfway.getStatus()).isEqualTo("IN_PROGRESS");
+        assertThat(halfway.getProcessed()).isEqualTo(OutboxService.DELIVERY_BATCH_SIZE);
+        assertThat(halfway.getDelivered()).isEqualTo(known);
+        assertThat(halfway.getSkipped()).isEqualTo(firstBatchSkipped);
+        assertThat(halfway.getSkippedReceivers()).containsExactlyElementsOf(unknownReceivers.subList(0, firstBatchSkipped));
+        assertThat(halfway.getChunksDone()).isEqualTo(1);
+
+        outboxService.deliverNextBatch(entry.getId(), WORKER);
+        BulkSendProgressDto finished = outboxService.getProgress(entry.getId(), SENDER);
+        assertThat(finished.getStatus()).isEqualTo("DELIVERED");
+        assertThat(finished.getProcessed()).isEqualTo(known + unknown);
+        assertThat(finished.getDelivered()).isEqualTo(known);
+        assertThat(finished.getSkipped()).isEqualTo(unknown);
+        // Listed in send order, capped
+        assertThat(finished.getSkippedReceivers())
+                .containsExactlyElementsOf(unknownReceivers.subList(0, OutboxService.MAX_SKIPPED_LISTED));
+        assertThat(finished.getChunksDone()).isEqualTo(2);
+        assertThat(finished.getFinishedAt()).isNotNull();
+        assertThat(inboxCopiesPerReceiver("bulk")).containsOnlyKeys(receivers(0, known));
+    }
+
+    @Test
+    void progressIsOnlyShownToTheSender() {
+        MailOutbox entry = entry("private-progress", receivers(0, 1));
+        assertThat(outboxService.getProgress(entry.getId(), SENDER.toUpperCase()).getJobId()).isEqualTo(entry.getId());
+        assertThatThrownBy(() -> outboxService.getProgress(entry.getId(), receiver(0)))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    /**
+     * An entry as a send writes it, not due before a day so only the test delivers it
+     */
+    private MailOutbox entry(String subject, List<String> receivers) {
+        MessageContent content = messageContentRepository.save(MessageContent.builder()
+                .contentHash(MessageContent.hashOf(subject, "Body"))
+                .subject(subject)
+                .body("Body")
+                .build());
+        LocalDateTime now = LocalDateTime.now();
+        MailOutbox entry = mailOutboxRepository.save(MailOutbox.builder()
+                .senderId(sender.getUserId())
+                .sender(SENDER)
+                .content(content)
+                .snippet("Body")
+                .priority(1)
+                .receiverCount(receivers.size())
+                .nextAttemptAt(now.plusDays(1))
+                .createdAt(now)
+                .build());
+        mailBatchRepository.insertOutboxReceivers(entry.getId(), receivers);
+        return entry;
+    }
+
+    private MailOutbox reload(MailOutbox entry) {
+        return mailOutboxRepository.findById(entry.getId()).orElseThrow();
+    }
+
+    private Map<String, Long> inboxCopiesPerReceiver(String subject) {
+        return mailRepository.findAll().stream()
+                .filter(mail -> subject.equals(mail.getSubject()) && MailFolders.INBOX.equals(mail.getFolderName()))
+                .collect(Collectors.groupingBy(Mail::getReceiver, Collectors.counting()));
+    }
+
+    private static List<String> receivers(int from, int to) {
+        return IntStream.range(from, to).mapToObj(OutboxServiceTest::receiver).toList();
+    }
+
+    private static String receiver(int i) {
+        return "receiver" + i + "@outbox.test";
+    }
+}
@@ -0,0 +1,98 @@
+package eg.edu.alexu.cse.mail_server.Service;
+
+import static eg.edu.alexu.cse.mail_server.TestUsers.user;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The recipient filter only knows the users of its last build and the registrations since:
+ * a user saved any other way is rejected until the scheduled rebuild, which picks it up
+ * whatever the fill of the filter, and resizes the filter as the users table grows
+ * The filter bean is shared by the tests, each one builds it from its own (rolled back) users
+ */
+@DataJpaTest
+@Import(RecipientFilter.class)
+class RecipientFilterTest {
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class Metrics {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    private RecipientFilter recipientFilter;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    void rebuildPicksUpUsersSavedOutsideRegistration() {
+        userRepository.save(user("registered@filter.test"));
+        recipientFilter.build();
+        assertThat(recipientFilter.mightContain("registered@filter.test")).isTrue();
+        assertThat(recipientFilter.mightContain("imported@filter.test")).isFalse();
+
+        // Imported with SQL or registered on another instance, SaveUserHandler never saw it
+        userRepository.save(user("imported@filter.test"));
+        assertThat(recipientFilter.mightContain("imported@filter.test")).isFalse();
+
+        recipientFilter.rebuild();
+        assertThat(recipientFilter.mightContain("imported@filter.test")).isTrue();
+        // Compared ignoring case, like the users table
+        assertThat(recipientFilter.mightContain(" Imported@Filter.Test")).isTrue();
+        assertThat(recipientFilter.entries()).isEqualTo(2);
+    }
+
+    @Test
+    void registrationsAreAddedWithoutARebuild() {
+        recipientFilter.build();
+        recipientFilter.add("new@filter.test");
+
+        assertThat(recipientFilter.mightContain("new@filter.test")).isTrue();
+        assertThat(recipientFilter.entries()).isEqualTo(1);
+    }
+
+    @Test
+    void rebuildResizesTheFilterForTheUsersTable() {
+        recipientFilter.build();
+        int initialBits = recipientFilter.bitCount();
+
+        // Past the minimum capacity once the growth room is added
+        List<User> users = new ArrayList<>();
+        IntStream.range(0, 6000).forEach(i -> users.add(user("user" + i + "@filter.test")));
+        userRepository.saveAll(users);
+        recipientFilter.rebuild();
+
+        assertThat(recipientFilter.entries()).isEqualTo(6000);
+        assertThat(recipientFilter.bitCount()).isGreaterThan(initialBits);
+        assertThat(recipientFilter.mightContain("user5999@filter.test")).isTrue();
+    }
+
+    @Test
+    void rebuildRunsOnAFixedSchedule() throws NoSuchMethodException {
+        Scheduled schedule = RecipientFilter.class.getMethod("rebuild").getAnnotation(Scheduled.class);
+
+        assertThat(schedule).as("@Scheduled on rebuild").isNotNull();
+        assertThat(schedule.fixedDelay()).isPositive();
+    }
+}
@@ -0,0 +1,120 @@
+package eg.edu.alexu.cse.mail_server.Service.command;
+
+import static eg.edu.alexu.cse.mail_server.TestUsers.user;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import eg.edu.alexu.cse.mail_server.Entity.MailOutbox;
+import eg.edu.alexu.cse.mail_server.Entity.User;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxReceiverRepository;
+import eg.edu.alexu.cse.mail_server.Repository.MailOutboxRepository;
+import eg.edu.alexu.cse.mail_server.Repository.SqlRecorder;
+import eg.edu.alexu.cse.mail_server.Repository.UserRepository;
+import eg.edu.alexu.cse.mail_server.Service.RecipientFilter;
+import eg.edu.alexu.cse.mail_server.dto.ComposeEmailDTO;
+
+/**
+ * A send resolves its receivers in one query and writes a fixed number of rows
+ * (sent copy, content, counter, outbox entry): the statements it executes must not
+ * grow with the number of receivers
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:send-statements;MODE=MySQL;DB_CLOSE_DELAY=-1",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "eg.edu.alexu.cse.mail_server.Repository.SqlRecorder"
+})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SendCommandStatementCountTest {
+
+    private static final String SENDER = "sender@send.test";
+    private static final int RECEIVERS = 101;
+
+    @Autowired
+    private SendCommand sendCommand;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private RecipientFilter recipientFilter;
+
+    @Autowired
+    private MailOutboxRepository mailOutboxRepository;
+
+    @Autowired
+    private MailOutboxReceiverRepository mailOutboxReceiverRepository;
+
+    @BeforeAll
+    void seedUsers() {
+        List<User> users = new ArrayList<>();
+        users.add(user(SENDER));
+        IntStream.range(0, RECEIVERS).forEach(i -> users.add(user(receiver(i))));
+        userRepository.saveAll(users);
+        // Users saved here bypass registration, the filter would reject them
+        recipientFilter.build();
+
+        // Warm-up: caches the sender, so the measured sends differ only by their receivers
+        sendCommand.execute(compose("warm-up", List.of(receiver(0))));
+    }
+
+    @Test
+    void statementCountDoesNotGrowWithReceivers() {
+        int single = statementsOf(compose("single", List.of(receiver(1))));
+        int many = statementsOf(compose("many", IntStream.range(2, RECEIVERS).mapToObj(i -> receiver(i)).toList()));
+
+        assertThat(many).as("statements for %d receivers vs 1", RECEIVERS - 2).isEqualTo(single);
+    }
+
+    @Test
+    void receiversDifferingOnlyInCaseGetOneCopy() {
+        sendCommand.execute(compose("case", List.of("Receiver0@Send.Test", " receiver0@send.test ")));
+
+        MailOutbox outbox = mailOutboxRepository.findAll().stream()
+                .max(Comparator.comparing(MailOutbox::getId))
+                .orElseThrow();
+        // First spelling kept, trimmed
+        assertThat(outbox.getReceiverCount()).isEqualTo(1);
+        assertThat(mailOutboxReceiverRepository.findEmails(outbox.getId(), 0, 2)).containsExactly("Receiver0@Send.Test");
+    }
+
+    /**
+     * Statements of the send on the calling thread
+     * The after-commit dispatch of OutboxWorker (due entries lookup and claims) is left out,
+     * how many entries it claims depends on how busy the delivery workers are
+     */
+    private int statementsOf(ComposeEmailDTO dto) {
+        SqlRecorder.clear();
+        sendCommand.execute(dto);
+        return (int) SqlRecorder.statements().stream()
+                .map(sql -> sql.toLowerCase(Locale.ROOT))
+                .filter(sql -> !(sql.startsWith("select") && sql.contains(" from mail_outbox ")))
+                .filter(sql -> !sql.startsWith("update mail_outbox "))
+                .count();
+    }
+
+    private static ComposeEmailDTO compose(String subject, List<String> receivers) {
+        ComposeEmailDTO dto = new ComposeEmailDTO();
+        dto.setSender(SENDER);
+        dto.setReceivers(receivers);
+        dto.setSubject(subject);
+        dto.setBody("Body of " + subject);
+        dto.setPriority(1);
+        return dto;
+    }
+
+    private static String receiver(int i) {
+        return "receiver" + i + "@send.test";
+    }
+}
@@ -0,0 +1,21 @@
+package eg.edu.alexu.cse.mail_server;
+
+import eg.edu.alexu.cse.mail_server.Entity.User;
+
+/**
+ * Users for tests that seed the database directly, bypassing registration
+ */
+public final class TestUsers {
+
+    private TestUsers() {
+    }
+
+    public static User user(String email) {
+        return User.builder()
+                .firstName("Test")
+                .lastName("User")
+                .email(email)
+                .password("secret")
+                .build();
+    }
+}